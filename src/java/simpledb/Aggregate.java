@@ -1,38 +1,114 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates, each over a single column, can be computed
+ * in one pass over the child, grouped by any number of columns.
+ * <p>
+ * The state of the groups is kept in memory up to a budget of memPages
+ * pages of partial state tuples. When a group-by has more groups than that,
+ * the state so far is written out to partitions on disk by a hash of the
+ * group-by values, and aggregation goes on with an empty state. Each
+ * partition then holds every partial state of its groups and is merged on
+ * its own, once the child is exhausted. A partition that still has too many
+ * groups is split again with a different hash.
+ * <p>
+ * When parallelism is enabled with {@link #setParallelism} and the child is
+ * a {@link SeqScan} of a {@link HeapFile} of at least MIN_PAGES_PER_WORKER
+ * pages per worker, the pages of the file are split into ranges that are
+ * aggregated by separate workers, run by a thread pool shared by all
+ * Aggregates.
+ * Each worker merges its tuples into a MultiAggregator of its own, and hands
+ * its partial state to the thread that called open() whenever it has its
+ * share of the memory budget of groups, and when its range is done. That
+ * thread merges the partial states, spilling them as above if needed.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
-    
+
+    /** The default memory budget, in pages */
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES;
+
+    /**
+     * The number of times a partition may be split again before its groups
+     * are merged in memory anyway
+     */
+    static final int MAX_PARTITION_DEPTH = 4;
+
+    /** The default number of workers for scans of heap files: none */
+    public static final int DEFAULT_PARALLELISM = 1;
+
+    /**
+     * The fewest pages each worker is given; smaller scans use fewer
+     * workers, down to aggregating on the calling thread
+     */
+    public static final int MIN_PAGES_PER_WORKER = 8;
+
+    /** Runs the workers of all parallel aggregations */
+    private static final ThreadPoolExecutor WORKERS = new ThreadPoolExecutor(
+    		Runtime.getRuntime().availableProcessors(),
+    		Runtime.getRuntime().availableProcessors(),
+    		1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+    		new ThreadFactory() {
+    			public Thread newThread(Runnable r) {
+    				Thread t = new Thread(r, "Aggregate worker");
+    				t.setDaemon(true);
+    				return t;
+    			}
+    		});
+    static {
+    	WORKERS.allowCoreThreadTimeOut(true);
+    }
+
     private DbIterator m_child;
-    
-    private int m_afield;
-    
-    private int m_gfield;
-    
-    private Aggregator.Op m_aop;
-    
-    private Aggregator m_aggregator;
-    
+
+    private int[] m_afields;
+
+    private int[] m_gfields;
+
+    private Aggregator.Op[] m_aops;
+
+    private Type[] m_gtypes;
+
+    private Type[] m_atypes;
+
     private DbIterator agg_it;
-    
+
     private TupleDesc agg_td;
 
+    private int m_memPages;
+
+    /** The number of groups that fit in the memory budget */
+    private int m_maxGroups;
+
+    /** Partitions whose groups have not been returned yet */
+    private LinkedList<Partition> m_pending = new LinkedList<Partition>();
+
+    /** Partitions whose groups have been returned, kept for rewind */
+    private ArrayList<Partition> m_done = new ArrayList<Partition>();
+
+    private boolean m_spilled;
+
+    private int m_parallelism = DEFAULT_PARALLELISM;
+
+    /** The groups being built by open(), and the partitions spilled so far */
+    private MultiAggregator m_building;
+
+    private Partition[] m_buildParts;
+
     /**
      * Constructor.
-     * 
-     * Implementation hint: depending on the type of afield, you will want to
-     * construct an {@link IntAggregator} or {@link StringAggregator} to help
-     * you with your implementation of readNext().
-     * 
-     * 
+     *
      * @param child
      *            The DbIterator that is feeding us tuples.
      * @param afield
@@ -44,41 +120,91 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
+    	this(child, new int[]{afield},
+    			gfield == Aggregator.NO_GROUPING ? new int[0] : new int[]{gfield},
+    			new Aggregator.Op[]{aop});
+    }
+
+    /**
+     * Constructor for several aggregates over the same grouping. The result
+     * tuples hold the group-by columns, in order, followed by the aggregates,
+     * in order.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates, one per
+     *            aggregate.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operators to use, one per aggregate
+     * @throws IllegalArgumentException
+     *            if an aggregate is not supported over its column's type
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+    	this(child, afields, gfields, aops, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor for several aggregates over the same grouping, keeping at
+     * most memPages pages of group state in memory.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates, one per
+     *            aggregate.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operators to use, one per aggregate
+     * @param memPages
+     *            The number of pages of group state to keep in memory; at
+     *            least 1
+     * @throws IllegalArgumentException
+     *            if an aggregate is not supported over its column's type
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields,
+    		Aggregator.Op[] aops, int memPages) {
+    	if(memPages < 1){
+    		throw new IllegalArgumentException("memPages must be at least 1");
+    	}
+    	if(afields.length != aops.length){
+    		throw new IllegalArgumentException("need one operator per aggregate field");
+    	}
     	m_child = child;
-    	m_afield = afield;
-    	m_gfield = gfield;
-    	m_aop = aop;
-    	String a_name = m_child.getTupleDesc().getFieldName(m_afield);
-		Type a_type = m_child.getTupleDesc().getFieldType(m_afield);
-		
-		//Set up aggregator
-		
-    	//without grouping
-    	if(m_gfield == -1){
-    		Type td_type[] = {a_type};
-    		String td_name[] = {m_aop.toString() + a_name};
-    		agg_td = new TupleDesc(td_type,td_name);
-    		if(a_type == Type.STRING_TYPE){
-    			m_aggregator = new StringAggregator(m_gfield,null,m_afield,m_aop);
-    		}
-    		else if(a_type == Type.INT_TYPE){
-    			m_aggregator = new IntegerAggregator(m_gfield,null,m_afield,m_aop);
-    		}
+    	m_afields = afields.clone();
+    	m_gfields = gfields.clone();
+    	m_aops = aops.clone();
+    	TupleDesc child_td = m_child.getTupleDesc();
+
+    	m_gtypes = new Type[m_gfields.length];
+    	m_atypes = new Type[m_afields.length];
+    	Type td_type[] = new Type[m_gfields.length + m_afields.length];
+    	String td_name[] = new String[td_type.length];
+    	for(int i = 0; i < m_gfields.length; i++){
+    		m_gtypes[i] = child_td.getFieldType(m_gfields[i]);
+    		td_type[i] = m_gtypes[i];
+    		td_name[i] = child_td.getFieldName(m_gfields[i]);
     	}
-    	//with grouping
-    	else{
-        	String gb_name = m_child.getTupleDesc().getFieldName(m_gfield);
-    		Type gb_type = m_child.getTupleDesc().getFieldType(m_gfield);
-    		Type td_type[] = {gb_type,a_type};
-    		String td_name[] = {gb_name,m_aop.toString() + a_name};
-    		agg_td = new TupleDesc(td_type,td_name);
-    		if(a_type == Type.STRING_TYPE){
-    			m_aggregator = new StringAggregator(m_gfield,gb_type,m_afield,m_aop);
-    		}
-    		else if(a_type == Type.INT_TYPE){
-    			m_aggregator = new IntegerAggregator(m_gfield,gb_type,m_afield,m_aop);
-    		}
+    	for(int j = 0; j < m_afields.length; j++){
+    		m_atypes[j] = child_td.getFieldType(m_afields[j]);
+    		//the type of all aggregate functions is INT
+    		td_type[m_gfields.length + j] = Type.INT_TYPE;
+    		td_name[m_gfields.length + j] = m_aops[j].toString() + child_td.getFieldName(m_afields[j]);
     	}
+    	agg_td = new TupleDesc(td_type, td_name);
+    	m_memPages = memPages;
+    	//fail here rather than in open() if an aggregate is unsupported
+    	TupleDesc partial_td = newAggregator().getPartialTupleDesc();
+    	m_maxGroups = memPages * HeapPage.getNumTuples(partial_td);
+    }
+
+    private MultiAggregator newAggregator() {
+    	return new MultiAggregator(m_gfields, m_gtypes, m_afields, m_atypes, m_aops);
     }
 
     /**
@@ -87,25 +213,33 @@ public class Aggregate extends Operator {
      *         {@link simpledb.Aggregator#NO_GROUPING}
      * */
     public int groupField() {
-    	if(m_gfield == -1){
-    		return simpledb.Aggregator.NO_GROUPING; 
+    	if(m_gfields.length == 0){
+    		return simpledb.Aggregator.NO_GROUPING;
     	}
     	else{
-    		return m_gfield;
+    		return m_gfields[0];
     	}
     }
 
+    /**
+     * @return the indexes of all groupby fields in the <b>INPUT</b> tuples;
+     *         empty if there is no grouping
+     * */
+    public int[] groupFields() {
+    	return m_gfields.clone();
+    }
+
     /**
      * @return If this aggregate is accompanied by a group by, return the name
      *         of the groupby field in the <b>OUTPUT</b> tuples If not, return
      *         null;
      * */
     public String groupFieldName() {
-    	if(m_gfield == -1){
+    	if(m_gfields.length == 0){
     		return null;
     	}
     	else{
-    		return m_child.getTupleDesc().getFieldName(m_gfield);
+    		return m_child.getTupleDesc().getFieldName(m_gfields[0]);
     	}
     }
 
@@ -113,7 +247,14 @@ public class Aggregate extends Operator {
      * @return the aggregate field
      * */
     public int aggregateField() {
-    	return m_afield;
+    	return m_afields[0];
+    }
+
+    /**
+     * @return the aggregate fields, one per aggregate
+     * */
+    public int[] aggregateFields() {
+    	return m_afields.clone();
     }
 
     /**
@@ -121,55 +262,326 @@ public class Aggregate extends Operator {
      *         tuples
      * */
     public String aggregateFieldName() {
-    	return m_child.getTupleDesc().getFieldName(m_afield);
+    	return m_child.getTupleDesc().getFieldName(m_afields[0]);
     }
 
     /**
      * @return return the aggregate operator
      * */
     public Aggregator.Op aggregateOp() {
-    	return m_aop;
+    	return m_aops[0];
+    }
+
+    /**
+     * @return the aggregate operators, one per aggregate
+     * */
+    public Aggregator.Op[] aggregateOps() {
+    	return m_aops.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
     	return aop.toString();
     }
 
+    /**
+     * @return true if the last open() had to write group state to disk
+     */
+    public boolean hasSpilled() {
+    	return m_spilled;
+    }
+
+    /**
+     * Sets the number of workers that aggregate a child that is a scan of a
+     * heap file; 1, the default, aggregates on the calling thread.
+     */
+    public void setParallelism(int workers) {
+    	if(workers < 1){
+    		throw new IllegalArgumentException("need at least one worker");
+    	}
+    	m_parallelism = workers;
+    }
+
+    /**
+     * @return the heap file the child scans, or null if the child is not a
+     *         scan of a heap file
+     */
+    private HeapFile scannedHeapFile() {
+    	if(!(m_child instanceof SeqScan)){
+    		return null;
+    	}
+    	DbFile file = Database.getCatalog().getDatabaseFile(((SeqScan) m_child).getTableId());
+    	return file instanceof HeapFile ? (HeapFile) file : null;
+    }
+
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
-    	m_child.open();
+    	discard();
     	super.open();
-    	while(m_child.hasNext()){
-    		m_aggregator.mergeTupleIntoGroup(m_child.next());
+    	m_building = newAggregator();
+    	m_buildParts = null;
+    	try{
+    		m_child.open();
+    		HeapFile file = m_parallelism > 1 ? scannedHeapFile() : null;
+    		int workers = file == null ? 1
+    				: Math.min(m_parallelism, file.numPages() / MIN_PAGES_PER_WORKER);
+    		if(workers > 1){
+    			aggregateInParallel(file, workers);
+    		}else{
+    			if(BatchingIterator.isBatched(m_child)){
+    				// the budget is checked once a batch, so it may be
+    				// exceeded by up to a batch of groups
+    				BatchIterator batches = (BatchIterator) m_child;
+    				TupleBatch batch;
+    				while((batch = batches.nextBatch()) != null){
+    					m_building.mergeBatch(batch);
+    					checkBudget();
+    				}
+    			}else{
+    				while(m_child.hasNext()){
+    					m_building.mergeTupleIntoGroup(m_child.next());
+    					checkBudget();
+    				}
+    			}
+    		}
+    		if(m_buildParts == null){
+    			agg_it = m_building.iterator();
+    			agg_it.open();
+    		}else{
+    			spill(m_building, m_buildParts);
+    			m_spilled = true;
+    			queue(m_buildParts);
+    		}
+    	}catch(IOException e){
+    		deleteAll(m_buildParts);
+    		throw new DbException("Aggregate cannot spill to disk: " + e);
+    	}finally{
+    		m_building = null;
+    		m_buildParts = null;
+    	}
+    }
+
+    /**
+     * Spills the groups being built if there are more than fit in memory.
+     */
+    private void checkBudget() throws IOException, DbException,
+    		TransactionAbortedException {
+    	if(m_building.numGroups() > m_maxGroups){
+    		if(m_buildParts == null){
+    			m_buildParts = newPartitions(0);
+    		}
+    		spill(m_building, m_buildParts);
+    		m_building = newAggregator();
+    	}
+    }
+
+    /**
+     * Aggregates the pages of file in workers ranges of about equal size, each
+     * as its own task on the shared pool, and merges their partial states
+     * into m_building. The child is open but not read.
+     */
+    private void aggregateInParallel(HeapFile file, int workers)
+    		throws IOException, DbException, TransactionAbortedException {
+    	TransactionId tid = ((SeqScan) m_child).getTransactionId();
+    	int numPages = file.numPages();
+    	ParallelRun run = new ParallelRun(workers);
+    	for(int i = 0; i < workers; i++){
+    		int first = (int) ((long) numPages * i / workers);
+    		int end = (int) ((long) numPages * (i + 1) / workers);
+    		HeapFile.HeapFileIterator it =
+    				(HeapFile.HeapFileIterator) file.iterator(tid, first, end);
+    		WORKERS.execute(new Worker(run, it, file.getTupleDesc(),
+    				Math.max(1, m_maxGroups / workers)));
+    	}
+    	try{
+    		int finished = 0;
+    		while(finished < workers){
+    			PartialResult result = run.take();
+    			if(result.error != null){
+    				if(result.error instanceof TransactionAbortedException)
+    					throw (TransactionAbortedException) result.error;
+    				if(result.error instanceof Error)
+    					throw (Error) result.error;
+    				throw new DbException("Aggregate worker failed: " + result.error);
+    			}
+    			DbIterator it = result.aggregator.partialIterator();
+    			it.open();
+    			while(it.hasNext()){
+    				m_building.mergePartial(it.next());
+    				checkBudget();
+    			}
+    			it.close();
+    			if(result.last){
+    				finished++;
+    			}
+    		}
+    	}finally{
+    		run.cancelled = true;
+    	}
+    }
+
+    private Partition[] newPartitions(int depth) throws IOException {
+    	Partition[] parts = new Partition[Math.max(2, m_memPages - 1)];
+    	TupleDesc partial_td = newAggregator().getPartialTupleDesc();
+    	for(int i = 0; i < parts.length; i++){
+    		parts[i] = new Partition(new SpillFile(partial_td), depth);
+    	}
+    	return parts;
+    }
+
+    private static void deleteAll(Partition[] parts) {
+    	if(parts == null){
+    		return;
+    	}
+    	for(Partition part : parts){
+    		if(part != null)
+    			part.file.delete();
+    	}
+    }
+
+    /**
+     * Adds the non-empty partitions of parts to the front of the pending
+     * list, in order, and deletes the empty ones.
+     */
+    private void queue(Partition[] parts) {
+    	for(int i = parts.length - 1; i >= 0; i--){
+    		if(parts[i].file.numTuples() == 0){
+    			parts[i].file.delete();
+    		}else{
+    			m_pending.addFirst(parts[i]);
+    		}
+    	}
+    }
+
+    /**
+     * Writes the partial state of every group of aggregator to its partition.
+     */
+    private void spill(MultiAggregator aggregator, Partition[] parts)
+    		throws IOException, DbException, TransactionAbortedException {
+    	int depth = parts[0].depth;
+    	DbIterator it = aggregator.partialIterator();
+    	it.open();
+    	while(it.hasNext()){
+    		Tuple t = it.next();
+    		parts[partitionOf(t, m_gfields.length, depth, parts.length)].file.add(t);
+    	}
+    	it.close();
+    }
+
+    /**
+     * Hashes the first numFields fields of a partial state tuple, salted by
+     * depth so that a partition splits differently than its parent did.
+     */
+    private static int partitionOf(Tuple t, int numFields, int depth, int numParts) {
+    	int h = 1;
+    	for(int i = 0; i < numFields; i++){
+    		h = 31 * h + t.getField(i).hashCode();
     	}
-    	agg_it = m_aggregator.iterator();
-    	agg_it.open();
+    	h ^= depth * 0x9E3779B9;
+    	h *= 0xCC9E2D51;
+    	h = (h << 15) | (h >>> 17);
+    	h *= 0x1B873593;
+    	h ^= h >>> 16;
+    	return (h & 0x7fffffff) % numParts;
     }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate, If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Merges the next pending partition and points agg_it at its groups,
+     * splitting partitions that have too many groups first.
+     *
+     * @return false if there are no more partitions
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+    	while(!m_pending.isEmpty()){
+    		Partition part = m_pending.removeFirst();
+    		MultiAggregator aggregator = newAggregator();
+    		Partition[] parts = null;
+    		try{
+    			DbIterator it = part.file.iterator();
+    			it.open();
+    			while(it.hasNext()){
+    				aggregator.mergePartial(it.next());
+    				if(aggregator.numGroups() > m_maxGroups
+    						&& part.depth < MAX_PARTITION_DEPTH){
+    					if(parts == null){
+    						parts = newPartitions(part.depth + 1);
+    					}
+    					spill(aggregator, parts);
+    					aggregator = newAggregator();
+    				}
+    			}
+    			it.close();
+    			if(parts != null){
+    				spill(aggregator, parts);
+    			}
+    		}catch(IOException e){
+    			deleteAll(parts);
+    			part.file.delete();
+    			throw new DbException("Aggregate cannot spill to disk: " + e);
+    		}
+    		if(parts != null){
+    			part.file.delete();
+    			queue(parts);
+    			continue;
+    		}
+    		m_done.add(part);
+    		agg_it = aggregator.iterator();
+    		agg_it.open();
+    		return true;
+    	}
+    	return false;
+    }
+
+    /**
+     * Returns the next tuple. The group by fields, if any, come first, in the
+     * order they were given to the constructor, followed by the result of
+     * computing each aggregate. If there is no group by field, the result
+     * tuple contains only the aggregates. Should return null if there are no
+     * more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-    	if(agg_it.hasNext()){
-    		return agg_it.next();
+    	while(true){
+    		if(agg_it != null && agg_it.hasNext()){
+    			return agg_it.next();
+    		}
+    		if(!m_spilled || !nextPartition()){
+    			return null;
+    		}
     	}
-    	return null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-    	agg_it.rewind();
+    	if(m_spilled){
+    		m_pending.addAll(0, m_done);
+    		m_done.clear();
+    		agg_it = null;
+    	}else{
+    		agg_it.rewind();
+    	}
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
-     * 
+     * Drops the groups and partitions of the last open().
+     */
+    private void discard() {
+    	if(agg_it != null){
+    		agg_it.close();
+    		agg_it = null;
+    	}
+    	for(Partition part : m_pending){
+    		part.file.delete();
+    	}
+    	for(Partition part : m_done){
+    		part.file.delete();
+    	}
+    	m_pending.clear();
+    	m_done.clear();
+    	m_spilled = false;
+    }
+
+    /**
+     * Returns the TupleDesc of this Aggregate. The group by fields, if any,
+     * come first, followed by one int field per aggregate.
+     *
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
      * given in the constructor, and child_td is the TupleDesc of the child
@@ -181,7 +593,7 @@ public class Aggregate extends Operator {
 
     public void close() {
     	m_child.close();
-    	agg_it.close();
+    	discard();
     	super.close();
     }
 
@@ -194,5 +606,122 @@ public class Aggregate extends Operator {
     public void setChildren(DbIterator[] children) {
     	m_child = children[0];
     }
-    
+
+    /**
+     * A file of partial state tuples, and how many times its groups have
+     * been split.
+     */
+    private static class Partition {
+    	final SpillFile file;
+    	final int depth;
+
+    	Partition(SpillFile file, int depth) {
+    		this.file = file;
+    		this.depth = depth;
+    	}
+    }
+
+    /**
+     * The state shared by the workers of one parallel open().
+     */
+    private static class ParallelRun {
+    	final BlockingQueue<PartialResult> results;
+    	/** Set when open() stops taking results, so that workers stop */
+    	volatile boolean cancelled;
+
+    	ParallelRun(int workers) {
+    		results = new ArrayBlockingQueue<PartialResult>(workers);
+    	}
+
+    	/**
+    	 * Hands a result to open(), unless open() has stopped taking them.
+    	 *
+    	 * @return false if open() has stopped taking results
+    	 */
+    	boolean put(PartialResult result) throws InterruptedException {
+    		while(!cancelled){
+    			if(results.offer(result, 100, TimeUnit.MILLISECONDS))
+    				return true;
+    		}
+    		return false;
+    	}
+
+    	PartialResult take() throws DbException {
+    		try{
+    			return results.take();
+    		}catch(InterruptedException e){
+    			throw new DbException("Aggregate interrupted: " + e);
+    		}
+    	}
+    }
+
+    /**
+     * Partial state from a worker, or what it failed with.
+     */
+    private static class PartialResult {
+    	final MultiAggregator aggregator;
+    	/** true if this is the last result of its worker */
+    	final boolean last;
+    	final Throwable error;
+
+    	PartialResult(MultiAggregator aggregator, boolean last, Throwable error) {
+    		this.aggregator = aggregator;
+    		this.last = last;
+    		this.error = error;
+    	}
+    }
+
+    /**
+     * Aggregates the tuples of a range of pages into thread-local groups.
+     */
+    private class Worker implements Runnable {
+    	private final ParallelRun m_run;
+    	private final HeapFile.HeapFileIterator m_it;
+    	private final TupleDesc m_td;
+    	private final int m_maxWorkerGroups;
+
+    	Worker(ParallelRun run, HeapFile.HeapFileIterator it, TupleDesc td,
+    			int maxWorkerGroups) {
+    		m_run = run;
+    		m_it = it;
+    		m_td = td;
+    		m_maxWorkerGroups = maxWorkerGroups;
+    	}
+
+    	public void run() {
+    		try{
+    			MultiAggregator aggregator = newAggregator();
+    			m_it.open();
+    			// pages are decoded straight into batches
+    			TupleBatch batch = new TupleBatch(m_td);
+    			while(!m_run.cancelled){
+    				batch.clear();
+    				m_it.fillBatch(batch);
+    				if(batch.size() == 0){
+    					break;
+    				}
+    				aggregator.mergeBatch(batch);
+    				if(aggregator.numGroups() > m_maxWorkerGroups){
+    					if(!m_run.put(new PartialResult(aggregator, false, null)))
+    						return;
+    					aggregator = newAggregator();
+    				}
+    			}
+    			m_run.put(new PartialResult(aggregator, true, null));
+    		}catch(InterruptedException e){
+    			// open() has given up on this run
+    		}catch(Throwable e){
+    			// open() waits for a last result from every worker, so even
+    			// an Error must be handed over
+    			try{
+    				m_run.put(new PartialResult(null, true, e));
+    			}catch(InterruptedException ie){
+    				// open() has given up on this run
+    			}
+    		}finally{
+    			m_it.close();
+    		}
+    	}
+    }
+
 }
@@ -0,0 +1,50 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the interface of operators that can return their output a
+ * batch of rows at a time, so that the work done per row is a loop over
+ * arrays rather than a chain of virtual next() calls down the plan. Its
+ * methods other than nextBatch are the ones of {@link DbIterator}, so an
+ * operator can implement both; it must then only be read one way between
+ * an open and a close.
+ * <p>
+ * {@link BatchingIterator} reads any DbIterator in batches, and
+ * {@link UnbatchingIterator} reads a BatchIterator a tuple at a time.
+ */
+public interface BatchIterator extends Serializable {
+
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next rows of the iteration. The batch, and the arrays it
+     * holds, belong to the iterator: they may be changed by the caller, but
+     * are only valid until the next call to nextBatch, rewind or close.
+     *
+     * @return a batch of one or more rows, or null if there are no more.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows of this iterator.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
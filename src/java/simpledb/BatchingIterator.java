@@ -0,0 +1,65 @@
+package simpledb;
+
+/**
+ * Reads a DbIterator in batches. Opening, rewinding and closing it opens,
+ * rewinds and closes the DbIterator.
+ */
+public class BatchingIterator implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbIterator m_child;
+
+    private transient TupleBatch m_batch;
+
+    public BatchingIterator(DbIterator child) {
+        m_child = child;
+    }
+
+    /**
+     * @return child itself if it can return batches, and otherwise a
+     *         BatchingIterator over it
+     */
+    public static BatchIterator of(DbIterator child) {
+        if (child instanceof BatchIterator)
+            return (BatchIterator) child;
+        return new BatchingIterator(child);
+    }
+
+    /**
+     * @return true if it makes batches without first making each row a
+     *         Tuple, so that reading it in batches saves work; operators
+     *         only do if they override {@link Operator#producesBatches}
+     */
+    public static boolean isBatched(DbIterator it) {
+        if (it instanceof Operator)
+            return ((Operator) it).producesBatches();
+        return it instanceof BatchIterator;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (m_batch == null)
+            m_batch = new TupleBatch(m_child.getTupleDesc());
+        m_batch.clear();
+        while (!m_batch.isFull() && m_child.hasNext())
+            m_batch.add(m_child.next());
+        return m_batch.size() == 0 ? null : m_batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_child.getTupleDesc();
+    }
+
+    public void close() {
+        m_child.close();
+        m_batch = null;
+    }
+}
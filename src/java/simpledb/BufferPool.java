@@ -4,7 +4,16 @@ import java.io.*;
 
 import java.util.*;
 
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -14,6 +23,22 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Cached pages are looked up without locking. A page that is not cached is
+ * read by the first thread to ask for it, while later threads wait for that
+ * read instead of reading the page again. The number of cached and loading
+ * pages is counted atomically, and a page is only evicted or flushed under
+ * the lock of its stripe, so threads working on different pages do not
+ * wait for each other.
+ * <p>
+ * Sequential scans announce the pages they will read next with
+ * {@link #prefetch}, and those pages are read on background threads while
+ * the scan works through the pages it has.
+ * <p>
+ * A page being read holds a frame that cannot be evicted until the read
+ * finishes. When the buffer pool is full and no cached page can be
+ * evicted, getPage waits for such reads rather than failing; read-ahead
+ * gives up instead.
  * 
  * @Threadsafe, all fields are final
  */
@@ -24,6 +49,41 @@ public class BufferPool {
     private int m_numpages;
     private ConcurrentHashMap<PageId, Page> ccmap;
     private Map<TransactionId, Set<PageId>> m_dirtypages;
+    private final HintedEvictionPolicy m_policy;
+
+    /** The reads in progress, so that each page is read only once */
+    private final ConcurrentHashMap<PageId, FutureTask<Page>> m_loads;
+
+    /** The number of pages cached or being read */
+    private final AtomicInteger m_used;
+
+    /** The number of frames counted in m_used for reads in progress */
+    private final AtomicInteger m_reading;
+
+    /** The number of threads waiting in awaitRead */
+    private final AtomicInteger m_awaiting;
+
+    /** Notified when a read in progress finishes, if m_awaiting > 0 */
+    private final Object m_readDone;
+
+    private static final int STRIPES = 64;
+
+    /** Locks for evicting, flushing and discarding pages, by page id hash */
+    private final Object[] m_stripes;
+
+    /** The most pages a sequential scan asks to have read ahead */
+    public static final int READ_AHEAD_PAGES = 8;
+
+    private static final int PREFETCH_THREADS = 2;
+
+    /** Reads the pages given to prefetch */
+    private final ThreadPoolExecutor m_prefetcher;
+
+    /**
+     * Pages read by prefetch that have not been asked for since; the first
+     * getPage of such a page is the access the read was made for
+     */
+    private final Set<PageId> m_prefetched;
 
     
     /** Default number of pages passed to the constructor. This is used by
@@ -37,9 +97,46 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new LruKEvictionPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, and evicts the
+     * pages the given policy chooses. Pages of tables with a {@link CacheHint}
+     * other than DEFAULT in the catalog are cached as their hint says instead.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the eviction policy
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
         m_numpages = numPages;
+        m_policy = new HintedEvictionPolicy(policy);
         m_dirtypages = new HashMap<TransactionId, Set<PageId>>();
         ccmap = new ConcurrentHashMap<PageId, Page>();
+        m_loads = new ConcurrentHashMap<PageId, FutureTask<Page>>();
+        m_used = new AtomicInteger();
+        m_reading = new AtomicInteger();
+        m_awaiting = new AtomicInteger();
+        m_readDone = new Object();
+        m_stripes = new Object[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            m_stripes[i] = new Object();
+        }
+        m_prefetched = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+        m_prefetcher = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS,
+                1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "BufferPool prefetch");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        m_prefetcher.allowCoreThreadTimeOut(true);
+    }
+
+    private Object stripeOf(PageId pid) {
+        return m_stripes[(pid.hashCode() & 0x7fffffff) % STRIPES];
     }
     
     public static int getPageSize() {
@@ -69,15 +166,206 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
     	Page cur_page = ccmap.get(pid);
-    	if(cur_page == null){
-    		if(m_numpages <=ccmap.size()){
-    			evictPage();
+    	if(cur_page != null){
+    		pageAccessed(pid);
+    		return cur_page;
+    	}
+    	return loadPage(pid);
+    }
+
+    /**
+     * Tells the eviction policy about a request for a page, unless the page
+     * was prefetched for this request.
+     */
+    private void pageAccessed(PageId pid) {
+    	if(!m_prefetched.remove(pid)){
+    		m_policy.pageAccessed(pid);
+    	}
+    }
+
+    /**
+     * @return the number of pages a sequential scan should ask to have read
+     *         ahead of the page it is on
+     */
+    public int readAheadPages() {
+    	return Math.min(READ_AHEAD_PAGES, m_numpages / 4);
+    }
+
+    /**
+     * Starts reading a page into the buffer pool in the background, unless
+     * it is cached or being read already. A failed read is ignored; getPage
+     * then reads the page itself.
+     *
+     * @param pid the ID of the page that will be requested soon
+     */
+    public void prefetch(final PageId pid) {
+    	if(ccmap.containsKey(pid) || m_loads.containsKey(pid)){
+    		return;
+    	}
+    	final FutureTask<Page> load = newLoad(pid, true);
+    	if(m_loads.putIfAbsent(pid, load) != null){
+    		return;
+    	}
+    	m_prefetched.add(pid);
+    	try{
+    		m_prefetcher.execute(new Runnable() {
+    			public void run() {
+    				try{
+    					load.run();
+    				}finally{
+    					m_loads.remove(pid, load);
+    				}
+    			}
+    		});
+    	}catch(RejectedExecutionException e){
+    		m_loads.remove(pid, load);
+    		m_prefetched.remove(pid);
+    	}
+    }
+
+    private FutureTask<Page> newLoad(final PageId pid, final boolean prefetch) {
+    	return new FutureTask<Page>(new Callable<Page>() {
+    		public Page call() throws DbException {
+    			return readPage(pid, prefetch);
     		}
+    	});
+    }
+
+    /**
+     * Returns a page that was not in the buffer pool when getPage looked,
+     * reading it unless another thread already is.
+     */
+    private Page loadPage(PageId pid) throws DbException {
+    	FutureTask<Page> load = newLoad(pid, false);
+    	FutureTask<Page> inFlight = m_loads.putIfAbsent(pid, load);
+    	if(inFlight == null){
+    		try{
+    			load.run();
+    		}finally{
+    			m_loads.remove(pid, load);
+    		}
+    	}else{
+    		load = inFlight;
+    		pageAccessed(pid);
+    	}
+    	try{
+    		return load.get();
+    	}catch(ExecutionException e){
+    		if(inFlight != null){
+    			//the read we waited for was someone else's; try our own
+    			m_loads.remove(pid, inFlight);
+    			return loadPage(pid);
+    		}
+    		Throwable cause = e.getCause();
+    		if(cause instanceof DbException)
+    			throw (DbException) cause;
+    		if(cause instanceof RuntimeException)
+    			throw (RuntimeException) cause;
+    		throw new DbException("Cannot read page " + pid + ": " + cause);
+    	}catch(InterruptedException e){
+    		throw new DbException("Interrupted reading page " + pid);
+    	}
+    }
+
+    /**
+     * Reads a page into the buffer pool, evicting pages first if the buffer
+     * pool is full. Only called by the thread that won the page's load.
+     *
+     * @param prefetch true if no one has asked for the page yet
+     */
+    private Page readPage(PageId pid, boolean prefetch) throws DbException {
+    	Page cur_page = ccmap.get(pid);
+    	if(cur_page != null){
+    		//a previous load finished after getPage looked
+    		if(prefetch)
+    			m_prefetched.remove(pid);
+    		else
+    			pageAccessed(pid);
+    		return cur_page;
+    	}
+    	reserveFrame(prefetch);
+    	boolean loaded = false;
+    	try{
     		Catalog cur_catalog = Database.getCatalog();
     		cur_page = cur_catalog.getDatabaseFile(pid.getTableId()).readPage(pid);
+    		if(cur_page == null){
+    			throw new DbException("Cannot read page " + pid);
+    		}
     		ccmap.put(pid, cur_page);
+    		m_policy.pageLoaded(pid, cur_catalog.getCacheHint(pid.getTableId()));
+    		loaded = true;
+    		return cur_page;
+    	}finally{
+    		if(!loaded){
+    			m_used.decrementAndGet();
+    			if(prefetch)
+    				m_prefetched.remove(pid);
+    		}
+    		readDone();
+    	}
+    }
+
+    /**
+     * Counts a new page against the capacity of the buffer pool, evicting
+     * pages until there is room for it. The frame is also counted as being
+     * read, until readDone is called.
+     *
+     * @param prefetch true to fail rather than wait for other reads
+     * @throws DbException if no page can be evicted, and no other page is
+     *         being read or prefetch is true
+     */
+    private void reserveFrame(boolean prefetch) throws DbException {
+    	while(true){
+    		int used = m_used.get();
+    		if(used < m_numpages){
+    			// counted as reading first, so that a thread that finds
+    			// nothing to evict knows to wait for this frame
+    			m_reading.incrementAndGet();
+    			if(m_used.compareAndSet(used, used + 1)){
+    				return;
+    			}
+    			readDone();
+    		}else{
+    			int reading = m_reading.get();
+    			if(evictPage()){
+    				continue;
+    			}
+    			if(prefetch)
+    				throw new DbException("Cannot read ahead: no page can be evicted");
+    			if(reading == 0)
+    				throw new DbException("Cannot evict page: every page is dirty");
+    			awaitRead();
+    		}
+    	}
+    }
+
+    /**
+     * Ends the count of a frame reserved by reserveFrame as being read.
+     */
+    private void readDone() {
+    	m_reading.decrementAndGet();
+    	if(m_awaiting.get() > 0){
+    		synchronized(m_readDone){
+    			m_readDone.notifyAll();
+    		}
+    	}
+    }
+
+    /**
+     * Waits until a read in progress finishes, if there is one.
+     */
+    private void awaitRead() throws DbException {
+    	m_awaiting.incrementAndGet();
+    	try{
+    		synchronized(m_readDone){
+    			if(m_reading.get() > 0)
+    				m_readDone.wait();
+    		}
+    	}catch(InterruptedException e){
+    		throw new DbException("Interrupted waiting for a free page");
+    	}finally{
+    		m_awaiting.decrementAndGet();
     	}
-    	return cur_page;
     }
 
     /**
@@ -144,7 +432,6 @@ public class BufferPool {
         // not necessary for lab1
     	Catalog cur_catalog = Database.getCatalog();
     	DbFile file = cur_catalog.getDatabaseFile(tableId);
-    	file.insertTuple(tid, t);
     	ArrayList<Page> dirtied = file.insertTuple(tid, t);
         for (Page page : dirtied) {
    	      page.markDirty(true, tid);
@@ -196,22 +483,31 @@ public class BufferPool {
         buffer pool doesn't keep a rolled back page in its
         cache.
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // only necessary for lab5
+    	synchronized(stripeOf(pid)){
+    		if(ccmap.remove(pid) != null){
+    			m_policy.pageRemoved(pid);
+    			m_prefetched.remove(pid);
+    			m_used.decrementAndGet();
+    		}
+    	}
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
+    	synchronized (stripeOf(pid)) {
     	if (ccmap.containsKey(pid)) {
     	      Page page = ccmap.get(pid);
     	      TransactionId dirty = page.isDirty();
     	      if (dirty != null) {
+    	    	  synchronized (m_dirtypages) {
     	    	  if (m_dirtypages.containsKey(dirty))
        		   {
        				m_dirtypages.get(dirty).add(pid);
@@ -222,6 +518,7 @@ public class BufferPool {
        				 dirtypages.add(pid);
        				 m_dirtypages.put(dirty, dirtypages);
        		   }
+    	    	  }
 
     	        LogFile log = Database.getLogFile();
     	        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
@@ -232,6 +529,7 @@ public class BufferPool {
     	        page.markDirty(false, null);
     	      }
     	}
+    	}
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -244,28 +542,36 @@ public class BufferPool {
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The page is chosen by the eviction policy among the clean pages, so
+     * it never needs to be flushed.
+     *
+     * @return false if there is no clean cached page to evict
      */
-    private synchronized  void evictPage() throws DbException {
+    private boolean evictPage() {
         // some code goes here
         // not necessary for lab1
-    	PageId pid = null;
-        Iterator<PageId> it = ccmap.keySet().iterator();
-    	do{
-    		pid = it.next();
-    	}
-    	while(it.hasNext() && ccmap.get(pid).isDirty() != null);
-     	if (ccmap.get(pid).isDirty() !=null || pid == null)
-     		throw new DbException("Cannot evict page");
-    	try {
-    		flushPage(pid);
-    		ccmap.remove(pid);
-    		m_numpages--;
-    	} catch (IOException e) {
-    		e.printStackTrace();
-    		throw new DbException("Cannot evict page");	
+    	EvictionPolicy.Candidates clean = new EvictionPolicy.Candidates() {
+    		public boolean canEvict(PageId candidate) {
+    			Page page = ccmap.get(candidate);
+    			return page != null && page.isDirty() == null;
+    		}
+    	};
+    	while(true){
+    		PageId pid = m_policy.chooseVictim(clean);
+    		if (pid == null)
+    			return false;
+    		synchronized(stripeOf(pid)){
+    			Page page = ccmap.get(pid);
+    			//another thread may have evicted or dirtied it since
+    			if(page != null && page.isDirty() == null){
+    				ccmap.remove(pid);
+    				m_policy.pageRemoved(pid);
+    				m_prefetched.remove(pid);
+    				m_used.decrementAndGet();
+    				return true;
+    			}
+    		}
     	}
-    	
     }
 
 }
@@ -0,0 +1,20 @@
+package simpledb;
+
+/**
+ * How the buffer pool should cache the pages of a table, as recorded in the
+ * {@link Catalog}.
+ */
+public enum CacheHint {
+    /** Pages are cached as the buffer pool's eviction policy decides */
+    DEFAULT,
+    /**
+     * Pages stay cached; they are only evicted when no other page can be,
+     * e.g. for small tables that every query joins with
+     */
+    KEEP,
+    /**
+     * Pages are evicted before any other page, e.g. for large tables that
+     * are scanned once
+     */
+    RECYCLE
+}
@@ -26,10 +26,12 @@ public class Catalog {
     {
         public String m_name;
         public String m_pkey;
+        public volatile CacheHint m_hint;
     
-        public Table(String name, String pkey) {
+        public Table(String name, String pkey, CacheHint hint) {
             m_name = name;
             m_pkey = pkey;
+            m_hint = hint;
         }
 
     } // End Private Class Table
@@ -59,10 +61,23 @@ public class Catalog {
      * conflict exists, use the last table to be added as the table for a given name.
      */
     public void addTable(DbFile file, String name, String pkeyField) {
+    	addTable(file, name, pkeyField, CacheHint.DEFAULT);
+    }
+
+    /**
+     * Add a new table to the catalog, with a hint for how the buffer pool
+     * should cache its pages.
+     * @param file the contents of the table to add
+     * @param name the name of the table
+     * @param pkeyField the name of the primary key field
+     * @param hint how the buffer pool should cache the table's pages
+     */
+    public void addTable(DbFile file, String name, String pkeyField, CacheHint hint) {
     	assert( name != null);
     	assert(file != null);
     	assert(pkeyField != null);
-    	Table nt = new Table(name, pkeyField);
+    	assert(hint != null);
+    	Table nt = new Table(name, pkeyField, hint);
     	m_tfiles.put(nt, file);
     	m_ftables.put(file.getId(), nt);
         // some code goes here
@@ -84,13 +99,14 @@ public class Catalog {
     }
 
     /**
-     * Return the id of the table with a specified name,
+     * Return the id of the table with a specified name. Names are compared
+     * with equals, not ==, since names from the parser are new strings.
      * @throws NoSuchElementException if the table doesn't exist
      */
     public int getTableId(String name) throws NoSuchElementException {
     	for (Table key : m_tfiles.keySet())
     	{
-    		if(key.m_name == name)
+    		if(key.m_name.equals(name))
     		{
     			return m_tfiles.get(key).getId();
     		}
@@ -135,6 +151,35 @@ public class Catalog {
     	throw new NoSuchElementException( "DbFile with ID " + tableid + "does not exist");
     }
 
+    /**
+     * Returns how the buffer pool should cache the pages of the specified
+     * table.
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public CacheHint getCacheHint(int tableid) throws NoSuchElementException {
+    	if(m_ftables.containsKey(tableid))
+    	{
+    		return m_ftables.get(tableid).m_hint;
+    	}
+    	throw new NoSuchElementException( "DbFile with ID " + tableid + "does not exist");
+    }
+
+    /**
+     * Changes how the buffer pool should cache the pages of the specified
+     * table. Pages already in the buffer pool keep their old hint until they
+     * are evicted.
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public void setCacheHint(int tableid, CacheHint hint) throws NoSuchElementException {
+    	assert(hint != null);
+    	if(m_ftables.containsKey(tableid))
+    	{
+    		m_ftables.get(tableid).m_hint = hint;
+    		return;
+    	}
+    	throw new NoSuchElementException( "DbFile with ID " + tableid + "does not exist");
+    }
+
     public Iterator<Integer> tableIdIterator() {
         // some code goes here
         Iterator<Integer> it = m_ftables.keySet().iterator();
@@ -169,7 +214,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [hint]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -199,9 +244,19 @@ public class Catalog {
                 }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
+                CacheHint hint = CacheHint.DEFAULT;
+                String annotation = line.substring(line.indexOf(")") + 1).trim();
+                if (annotation.length() > 0) {
+                    try {
+                        hint = CacheHint.valueOf(annotation.toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        System.out.println("Unknown cache hint " + annotation);
+                        System.exit(0);
+                    }
+                }
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
+                addTable(tabHf,name,primaryKey,hint);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The CLOCK eviction policy: pages sit in the frames of a circular list with
+ * a reference bit each, and a hand sweeps the list, clearing set bits, until
+ * it finds a page whose bit is clear. A loaded page takes the frame of the
+ * page evicted for it, so the hand next reaches it only after a full sweep.
+ * <p>
+ * A page's bit is only set when it is accessed again after being loaded, so
+ * the pages of a sequential scan, which are read once, are evicted before
+ * pages that have been used again since the hand last passed them. That
+ * protects a hot page for one more sweep of the hand; for protection from
+ * scans of any length use {@link LruKEvictionPolicy}.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    /** The page in each frame, or null if the frame is free */
+    private final ArrayList<PageId> m_frames = new ArrayList<PageId>();
+
+    /** The reference bit of each frame */
+    private final ArrayList<Boolean> m_referenced = new ArrayList<Boolean>();
+
+    /** The frame of each page */
+    private final HashMap<PageId, Integer> m_positions = new HashMap<PageId, Integer>();
+
+    /** The free frames, most recently freed last */
+    private final ArrayList<Integer> m_free = new ArrayList<Integer>();
+
+    private int m_hand;
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (m_positions.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        int pos;
+        if (m_free.isEmpty()) {
+            pos = m_frames.size();
+            m_frames.add(pid);
+            m_referenced.add(false);
+        } else {
+            pos = m_free.remove(m_free.size() - 1);
+            m_frames.set(pos, pid);
+            m_referenced.set(pos, false);
+        }
+        m_positions.put(pid, pos);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        Integer pos = m_positions.get(pid);
+        if (pos != null)
+            m_referenced.set(pos, true);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer pos = m_positions.remove(pid);
+        if (pos == null)
+            return;
+        m_frames.set(pos, null);
+        m_free.add(pos);
+    }
+
+    public synchronized PageId chooseVictim(Candidates candidates) {
+        int n = m_frames.size();
+        // two sweeps clear every bit, so a third cannot find anything new
+        for (int i = 0; i < 2 * n; i++) {
+            int pos = m_hand;
+            m_hand = (m_hand + 1) % n;
+            PageId pid = m_frames.get(pos);
+            if (pid == null)
+                continue;
+            if (m_referenced.get(pos)) {
+                m_referenced.set(pos, false);
+            } else if (candidates.canEvict(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,36 @@
+package simpledb;
+
+/**
+ * ColumnVector holds the values of one field for the rows of a
+ * {@link TupleBatch}, in primitive arrays indexed by row, so that operators
+ * can loop over them without a Field object per value.
+ *
+ * @see IntVector
+ * @see StringVector
+ */
+public abstract class ColumnVector {
+
+    /**
+     * @return a new vector of type with room for capacity rows
+     */
+    static ColumnVector create(Type type, int capacity) {
+        if (type == Type.INT_TYPE)
+            return new IntVector(capacity);
+        return new StringVector(capacity);
+    }
+
+    /**
+     * @return the type of the values
+     */
+    public abstract Type getType();
+
+    /**
+     * @return the value of row as a Field
+     */
+    public abstract Field getField(int row);
+
+    /**
+     * Sets the value of row to f, which must be of this vector's type.
+     */
+    public abstract void setField(int row, Field f);
+}
@@ -0,0 +1,46 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which page the {@link BufferPool} evicts when it is
+ * full. The buffer pool tells the policy about every page it loads, every
+ * access to a page it already holds, and every page it drops, and asks it
+ * for a victim when it needs room.
+ * <p>
+ * Implementations must be safe to call from several threads at once.
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Tells which pages may be evicted right now; the buffer pool never
+     * evicts dirty pages.
+     */
+    public interface Candidates {
+        boolean canEvict(PageId pid);
+    }
+
+    /**
+     * Called when a page is read into the buffer pool.
+     */
+    public void pageLoaded(PageId pid);
+
+    /**
+     * Called when a page already in the buffer pool is requested again.
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the buffer pool, whether it was evicted or
+     * discarded.
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Chooses the page to evict. Does not forget the page; the buffer pool
+     * calls {@link #pageRemoved} once it has evicted it.
+     *
+     * @param candidates
+     *            which of the tracked pages may be evicted
+     * @return the page to evict, or null if no tracked page may be evicted
+     */
+    public PageId chooseVictim(Candidates candidates);
+}
@@ -9,6 +9,19 @@ public class Filter extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    private Predicate[] m_predicates;
+    
+    private DbIterator m_child;
+
+    /** m_predicates, compiled when first used */
+    private transient PredicateEvaluator m_evaluator;
+
+    /** m_child, read in batches */
+    private transient BatchIterator m_batches;
+
+    /** The rows of a batch that pass the predicates */
+    private transient int[] m_selected;
+            
     /**
      * Constructor accepts a predicate to apply and a child operator to read
      * tuples to filter from.
@@ -18,18 +31,47 @@ public class Filter extends Operator {
      * @param child
      *            The child operator
      */
-    
-    private Predicate m_predicate;
-    
-    private DbIterator m_child;
-            
     public Filter(Predicate p, DbIterator child) {
-    	m_predicate = p;
+    	this(new Predicate[] { p }, child);
+    }
+
+    /**
+     * Constructor accepts a conjunction of predicates to apply and a child
+     * operator to read tuples to filter from. The predicates are tried in
+     * the order given.
+     * 
+     * @param ps
+     *            The predicates tuples must all pass
+     * @param child
+     *            The child operator
+     * @throws IllegalArgumentException
+     *             if ps is empty
+     */
+    public Filter(Predicate[] ps, DbIterator child) {
+    	if (ps.length == 0)
+    		throw new IllegalArgumentException("no predicates");
+    	m_predicates = ps.clone();
     	m_child = child;
     }
 
+    /**
+     * @return the first predicate
+     */
     public Predicate getPredicate() {
-    	return m_predicate;
+    	return m_predicates[0];
+    }
+
+    /**
+     * @return all the predicates, in the order they are tried
+     */
+    public Predicate[] getPredicates() {
+    	return m_predicates.clone();
+    }
+
+    private PredicateEvaluator evaluator() {
+    	if (m_evaluator == null)
+    		m_evaluator = PredicateEvaluator.compile(m_predicates);
+    	return m_evaluator;
     }
 
     public TupleDesc getTupleDesc() {
@@ -53,8 +95,8 @@ public class Filter extends Operator {
 
     /**
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
-     * child operator, applying the predicate to them and returning those that
-     * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * child operator, applying the predicates to them and returning those that
+     * pass all of them (i.e. for which each Predicate.filter() returns true.)
      * 
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
@@ -62,10 +104,11 @@ public class Filter extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+    	PredicateEvaluator evaluator = evaluator();
     	try{
         	Tuple cur_tuple = m_child.next();
         	while(true){
-        		if(m_predicate.filter(cur_tuple)){
+        		if(evaluator.matches(cur_tuple)){
         			return cur_tuple;
         		}
         		cur_tuple = m_child.next();
@@ -74,6 +117,40 @@ public class Filter extends Operator {
     		return null;
     	}
     }
+    /**
+     * Returns the rows of the next batches of the child that pass the
+     * predicates, skipping batches with no such rows. Each predicate only
+     * looks at the rows that passed the ones before it.
+     *
+     * @see Predicate#filter(TupleBatch, int[])
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (m_batches == null)
+            m_batches = BatchingIterator.of(m_child);
+        PredicateEvaluator evaluator = evaluator();
+        TupleBatch batch;
+        while ((batch = m_batches.nextBatch()) != null) {
+            if (m_selected == null || m_selected.length < batch.size())
+                m_selected = new int[batch.capacity()];
+            int n = evaluator.filter(batch, m_selected);
+            if (n > 0) {
+                batch.select(m_selected, n);
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the child produces batches
+     */
+    @Override
+    protected boolean producesBatches() {
+        return BatchingIterator.isBatched(m_child);
+    }
+
     @Override
     public DbIterator[] getChildren() {
     	return new DbIterator[] { m_child };
@@ -82,6 +159,7 @@ public class Filter extends Operator {
     @Override
     public void setChildren(DbIterator[] children) {
         m_child = children[0];
+        m_batches = null;
     }
 
 }
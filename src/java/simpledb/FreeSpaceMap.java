@@ -0,0 +1,246 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap keeps one bit per page of a {@link HeapFile}, set if the page
+ * may have an empty slot, so that an insert finds a page with room without
+ * looking at the pages themselves.
+ * <p>
+ * The map is stored next to the heap file, in a file with the same name and
+ * ".fsm" appended: the number of pages it covers, as an int, then the length
+ * and modification time of the heap file as of its last page write, as
+ * longs, followed by the bits, eight pages to a byte. When a heap file is
+ * opened its map is read back; if there is none, or it covers a different
+ * number of pages or does not match the length and modification time of the
+ * file, the file has been written without the map and the map is built
+ * again from the headers of the pages. Tools that write heap files, such as
+ * {@link HeapFileEncoder} and {@link HeapFileLoader}, delete the map.
+ * <p>
+ * Inserts and deletes change the bits in memory only. The map file is only
+ * written when a page is written to the heap file, with the bit of that page
+ * as it was written, so it always describes the pages as they are on disk,
+ * and a transaction that aborts, or a crash, leaves it matching the file.
+ * The map is only a hint: a page whose bit is set but that turns out to be
+ * full is taken out of the map by the inserter.
+ */
+class FreeSpaceMap {
+
+    private static final int COUNT_SIZE = 4;
+
+    /** The page count, then the heap file's length and modification time */
+    private static final int HEADER_SIZE = COUNT_SIZE + 8 + 8;
+
+    private final File m_file;
+
+    /** The heap file */
+    private final File m_dataFile;
+
+    /** The bits as pages are now, including changes not yet written */
+    private final BitSet m_bits = new BitSet();
+
+    /** The number of pages covered by m_bits */
+    private int m_numPages;
+
+    /** The bits as the pages were last written to the heap file */
+    private final BitSet m_diskBits = new BitSet();
+
+    /** The number of pages covered by m_diskBits */
+    private int m_diskPages;
+
+    /** No page before this one has its bit set */
+    private int m_hint;
+
+    /** Open on the first change */
+    private FileChannel m_channel;
+
+    /** True if the map file does not match m_diskBits and must be rewritten */
+    private boolean m_stale;
+
+    /**
+     * @return the file the free-space map of the heap file f is stored in
+     */
+    static File fileFor(File f) {
+        return new File(f.getPath() + ".fsm");
+    }
+
+    /**
+     * Loads the free-space map of a heap file, or builds it from the headers
+     * of the file's pages.
+     *
+     * @param f
+     *            the file of the heap file
+     * @param data
+     *            a channel to read the pages of f
+     * @param td
+     *            the type of the tuples in f
+     */
+    FreeSpaceMap(File f, FileChannel data, TupleDesc td) throws IOException {
+        m_file = fileFor(f);
+        m_dataFile = f;
+        int numPages = (int) (data.size() / BufferPool.PAGE_SIZE);
+        if (!load(numPages))
+            rebuild(data, td, numPages);
+    }
+
+    /**
+     * Reads the map file, if it covers numPages pages and was last written
+     * with the heap file as it is now.
+     *
+     * @return true if the map was read
+     */
+    private boolean load(int numPages) throws IOException {
+        if (!m_file.exists())
+            return false;
+        RandomAccessFile raf = new RandomAccessFile(m_file, "r");
+        try {
+            if (raf.length() < HEADER_SIZE + (numPages + 7) / 8
+                    || raf.readInt() != numPages
+                    || raf.readLong() != m_dataFile.length()
+                    || raf.readLong() != m_dataFile.lastModified())
+                return false;
+            byte[] bits = new byte[(numPages + 7) / 8];
+            raf.readFully(bits);
+            for (int p = 0; p < numPages; p++) {
+                if ((bits[p / 8] >> (p % 8) & 1) != 0)
+                    m_bits.set(p);
+            }
+        } finally {
+            raf.close();
+        }
+        m_diskBits.or(m_bits);
+        m_numPages = numPages;
+        m_diskPages = numPages;
+        return true;
+    }
+
+    /**
+     * Sets the bit of each page that has an empty slot in its header.
+     */
+    private void rebuild(FileChannel data, TupleDesc td, int numPages)
+            throws IOException {
+        int slots = HeapPage.getNumTuples(td);
+        ByteBuffer header = ByteBuffer.allocate(HeapPage.getHeaderSize(td));
+        for (int p = 0; p < numPages; p++) {
+            header.clear();
+            long offset = (long) p * BufferPool.PAGE_SIZE;
+            while (header.hasRemaining()) {
+                if (data.read(header, offset + header.position()) < 0)
+                    break;
+            }
+            for (int i = 0; i < slots; i++) {
+                if ((header.get(i / 8) >> (i % 8) & 1) == 0) {
+                    m_bits.set(p);
+                    break;
+                }
+            }
+        }
+        m_diskBits.or(m_bits);
+        m_numPages = numPages;
+        m_diskPages = numPages;
+        m_stale = true;
+    }
+
+    /**
+     * @return the number of a page that may have an empty slot, or -1 if
+     *         there is none
+     */
+    synchronized int firstFree() {
+        int p = m_bits.nextSetBit(m_hint);
+        m_hint = p < 0 ? m_numPages : p;
+        return p;
+    }
+
+    /**
+     * Records whether page p has an empty slot, adding it to the map if it is
+     * a new page. The change is kept in memory until the page is written.
+     */
+    synchronized void set(int p, boolean free) {
+        m_bits.set(p, free);
+        if (free && p < m_hint)
+            m_hint = p;
+        if (p >= m_numPages)
+            m_numPages = p + 1;
+    }
+
+    /**
+     * Records that page p has been written to the heap file and whether it
+     * has an empty slot, and writes its bit to the map file, stamped with the
+     * heap file's new length and modification time.
+     */
+    synchronized void written(int p, boolean free) {
+        set(p, free);
+        m_diskBits.set(p, free);
+        boolean grown = p >= m_diskPages;
+        if (grown)
+            m_diskPages = p + 1;
+        try {
+            write(p, grown);
+        } catch (IOException e) {
+            // the map is rebuilt when the file is next opened
+            e.printStackTrace();
+            m_stale = true;
+        }
+    }
+
+    /**
+     * Puts the length and modification time of the heap file into buf.
+     */
+    private void putStamp(ByteBuffer buf) {
+        buf.putLong(m_dataFile.length());
+        buf.putLong(m_dataFile.lastModified());
+    }
+
+    /**
+     * Writes the byte holding the bit of page p to the map file, the page
+     * count if it has changed, and the stamp; or the whole map if the file is
+     * stale.
+     */
+    private void write(int p, boolean grown) throws IOException {
+        if (m_stale) {
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + (m_diskPages + 7) / 8);
+            buf.putInt(m_diskPages);
+            putStamp(buf);
+            for (int b = 0; b < (m_diskPages + 7) / 8; b++)
+                buf.put(bitsOf(b));
+            buf.flip();
+            writeFully(buf, 0);
+            m_channel.truncate(buf.limit());
+            m_stale = false;
+            return;
+        }
+        writeFully(ByteBuffer.wrap(new byte[] { bitsOf(p / 8) }),
+                HEADER_SIZE + p / 8);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(m_diskPages);
+        putStamp(header);
+        header.flip();
+        if (!grown)
+            header.position(COUNT_SIZE);
+        writeFully(header, 0);
+    }
+
+    /**
+     * @return the bits of pages 8b to 8b + 7, as they were last written
+     */
+    private byte bitsOf(int b) {
+        int v = 0;
+        for (int i = 0; i < 8; i++) {
+            if (m_diskBits.get(b * 8 + i))
+                v |= 1 << i;
+        }
+        return (byte) v;
+    }
+
+    private void writeFully(ByteBuffer buf, long offset) throws IOException {
+        if (m_channel == null)
+            m_channel = new RandomAccessFile(m_file, "rw").getChannel();
+        while (buf.hasRemaining())
+            m_channel.write(buf, offset + buf.position());
+    }
+}
@@ -0,0 +1,262 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * GroupTable gives the distinct group-by values seen by an aggregator dense
+ * indexes 0, 1, 2, ... in the order they are first seen, so that aggregate
+ * state can be kept in arrays indexed by group.
+ * <p>
+ * It is an open addressing hash table with linear probing. Int group values
+ * are kept in an int[] and compared without boxing; string group values are
+ * kept with their hash, and only compared when the hashes are equal. A
+ * group-by over several fields keys each group on a copy of its fields,
+ * which is compared field by field against the fields of a probing tuple
+ * without copying them.
+ */
+class GroupTable {
+
+    private static final int INITIAL_GROUPS = 16;
+
+    private final Type m_type;
+
+    /** The number of group-by fields */
+    private final int m_width;
+
+    /** Group index + 1 for each hash slot, or 0 if the slot is empty */
+    private int[] m_slots;
+
+    /** Per group: the hash of its value */
+    private int[] m_hashes;
+
+    /** Per group: its value, if m_type is Type.INT_TYPE */
+    private int[] m_intKeys;
+
+    /** Per group: its value, if m_type is Type.STRING_TYPE */
+    private String[] m_stringKeys;
+
+    /** Per group: its values, if there are several group-by fields */
+    private Field[][] m_compositeKeys;
+
+    private int m_size;
+
+    /**
+     * @param type
+     *            the type of the group-by values
+     */
+    GroupTable(Type type) {
+        this(new Type[] { type });
+    }
+
+    /**
+     * @param types
+     *            the types of the group-by fields, one or more
+     */
+    GroupTable(Type[] types) {
+        m_width = types.length;
+        m_type = types[0];
+        m_slots = new int[INITIAL_GROUPS * 2];
+        m_hashes = new int[INITIAL_GROUPS];
+        if (m_width > 1)
+            m_compositeKeys = new Field[INITIAL_GROUPS][];
+        else if (m_type == Type.INT_TYPE)
+            m_intKeys = new int[INITIAL_GROUPS];
+        else
+            m_stringKeys = new String[INITIAL_GROUPS];
+    }
+
+    /**
+     * @return the number of distinct groups
+     */
+    int size() {
+        return m_size;
+    }
+
+    /**
+     * Mixes the bits of h so that nearby values land in distant slots.
+     */
+    static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Returns the index of the group of the values of fields in tuple t,
+     * adding a new group with the next index if they have not been seen
+     * before.
+     *
+     * @param t
+     *            the tuple to look up
+     * @param fields
+     *            the indexes of the group-by fields in t, one per type this
+     *            table was created with
+     */
+    int indexOf(Tuple t, int[] fields) {
+        if (m_width == 1)
+            return indexOf(t.getField(fields[0]));
+        int h = 1;
+        for (int i = 0; i < m_width; i++)
+            h = 31 * h + t.getField(fields[i]).hashCode();
+        h = mix(h);
+        int mask = m_slots.length - 1;
+        for (int s = h & mask;; s = (s + 1) & mask) {
+            int g = m_slots[s] - 1;
+            if (g < 0) {
+                int added = add(s, h);
+                Field[] key = new Field[m_width];
+                for (int i = 0; i < m_width; i++)
+                    key[i] = t.getField(fields[i]);
+                m_compositeKeys[added] = key;
+                return added;
+            }
+            if (m_hashes[g] == h && keyEquals(m_compositeKeys[g], t, fields)) {
+                return g;
+            }
+        }
+    }
+
+    private static boolean keyEquals(Field[] key, Tuple t, int[] fields) {
+        for (int i = 0; i < key.length; i++) {
+            if (!key[i].equals(t.getField(fields[i])))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the index of the group of value f, adding a new group with the
+     * next index if f has not been seen before. Only for tables with a single
+     * group-by field.
+     *
+     * @param f
+     *            a group-by value of this table's type
+     */
+    int indexOf(Field f) {
+        if (m_type == Type.INT_TYPE)
+            return indexOf(((IntField) f).getValue());
+        return indexOf(((StringField) f).getValue());
+    }
+
+    /**
+     * Returns the index of the group of int value key, adding it if needed.
+     */
+    int indexOf(int key) {
+        int h = mix(key);
+        int mask = m_slots.length - 1;
+        for (int s = h & mask;; s = (s + 1) & mask) {
+            int g = m_slots[s] - 1;
+            if (g < 0) {
+                int added = add(s, h);
+                m_intKeys[added] = key;
+                return added;
+            }
+            if (m_intKeys[g] == key) {
+                return g;
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the group of string value key, adding it if
+     * needed.
+     */
+    int indexOf(String key) {
+        int h = mix(key.hashCode());
+        int mask = m_slots.length - 1;
+        for (int s = h & mask;; s = (s + 1) & mask) {
+            int g = m_slots[s] - 1;
+            if (g < 0) {
+                int added = add(s, h);
+                m_stringKeys[added] = key;
+                return added;
+            }
+            if (m_hashes[g] == h && m_stringKeys[g].equals(key)) {
+                return g;
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the group of row r of a string vector, adding it
+     * if needed. An ASCII value is hashed and compared in place, and only
+     * made into a String if it is new, since its bytes and its chars then
+     * agree in any ASCII-compatible charset; any other value is decoded and
+     * looked up as a String, so that it finds the same group as when it is
+     * read from a Tuple.
+     */
+    int indexOf(StringVector keys, int r) {
+        if (!keys.isAscii(r))
+            return indexOf(keys.get(r));
+        int h = mix(keys.hashCode(r));
+        int mask = m_slots.length - 1;
+        for (int s = h & mask;; s = (s + 1) & mask) {
+            int g = m_slots[s] - 1;
+            if (g < 0) {
+                int added = add(s, h);
+                m_stringKeys[added] = keys.get(r);
+                return added;
+            }
+            if (m_hashes[g] == h && keys.equals(r, m_stringKeys[g])) {
+                return g;
+            }
+        }
+    }
+
+    /**
+     * Adds a new group with the given hash in the given empty slot; the
+     * caller stores its value.
+     */
+    private int add(int slot, int hash) {
+        int g = m_size++;
+        if (g == m_hashes.length) {
+            int n = m_hashes.length * 2;
+            m_hashes = Arrays.copyOf(m_hashes, n);
+            if (m_compositeKeys != null)
+                m_compositeKeys = Arrays.copyOf(m_compositeKeys, n);
+            else if (m_intKeys != null)
+                m_intKeys = Arrays.copyOf(m_intKeys, n);
+            else
+                m_stringKeys = Arrays.copyOf(m_stringKeys, n);
+        }
+        m_hashes[g] = hash;
+        m_slots[slot] = g + 1;
+        if (m_size * 2 > m_slots.length)
+            rehash();
+        return g;
+    }
+
+    private void rehash() {
+        int[] slots = new int[m_slots.length * 2];
+        int mask = slots.length - 1;
+        for (int g = 0; g < m_size; g++) {
+            int s = m_hashes[g] & mask;
+            while (slots[s] != 0)
+                s = (s + 1) & mask;
+            slots[s] = g + 1;
+        }
+        m_slots = slots;
+    }
+
+    /**
+     * @return the value of the i-th group-by field of group g
+     */
+    Field key(int g, int i) {
+        if (m_width > 1)
+            return m_compositeKeys[g][i];
+        return key(g);
+    }
+
+    /**
+     * @return the value of group g as a Field, for tables with a single
+     *         group-by field
+     */
+    Field key(int g) {
+        if (m_type == Type.INT_TYPE)
+            return new IntField(m_intKeys[g]);
+        return new StringField(m_stringKeys[g], Type.STRING_LEN);
+    }
+}
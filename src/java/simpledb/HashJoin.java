@@ -0,0 +1,522 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The HashJoin operator implements an equality join by building an in-memory
+ * hash table over the smaller of its two children and probing it with the
+ * tuples of the other child. Unlike {@link Join}, neither child is rescanned
+ * for every tuple of the other.
+ * <p>
+ * If neither child fits in the operator's memory budget, HashJoin falls back
+ * to a grace hash join: both children are hash partitioned on the join field
+ * into {@link SpillFile}s, and each pair of partitions is then joined in
+ * memory. Partitions that are still too large (e.g. because of skew) are
+ * partitioned again with a different hash function.
+ */
+public class HashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default memory budget, in pages, for the build side of the join.
+     */
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES;
+
+    /**
+     * How many times a partition may be split again before it is joined in
+     * memory regardless of the budget. Only a partition dominated by a single
+     * join key can still be too large after this many splits.
+     */
+    static final int MAX_PARTITION_DEPTH = 4;
+
+    private DbIterator m_child1;
+
+    private DbIterator m_child2;
+
+    private JoinPredicate m_p;
+
+    private TupleDesc m_td;
+
+    private int m_memPages;
+
+    /**
+     * Hash table over the build side, keyed by the build side's join field.
+     */
+    private HashMap<Field, ArrayList<Tuple>> m_table;
+
+    /**
+     * True if the left side was chosen as the build side.
+     */
+    private boolean m_buildLeft;
+
+    /**
+     * Probe side tuples that were read while deciding which side is smaller.
+     * They are probed before the rest of m_probe is read.
+     */
+    private ArrayList<Tuple> m_probeBuffer;
+
+    private int m_probeBufferPos;
+
+    /**
+     * The rest of the probe side: either a child or a spilled partition.
+     */
+    private DbIterator m_probe;
+
+    private Tuple m_probeTuple;
+
+    private ArrayList<Tuple> m_matches;
+
+    private int m_matchPos;
+
+    /**
+     * True if the children did not fit in memory and were partitioned.
+     */
+    private boolean m_spilled;
+
+    /**
+     * Partitions that still have to be joined.
+     */
+    private LinkedList<Partition> m_pending;
+
+    /**
+     * Partitions that have been (or are being) joined in memory. Kept so that
+     * rewind does not have to partition the children again.
+     */
+    private ArrayList<Partition> m_joined;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on, using the default memory budget.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator must
+     *            be Predicate.Op.EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     * @throws IllegalArgumentException
+     *             if the predicate is not an equality predicate
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor. Accepts two children to join, the predicate to join them
+     * on and the memory budget for the build side.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator must
+     *            be Predicate.Op.EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     * @param memPages
+     *            The number of pages worth of tuples the build side may
+     *            occupy before the join spills to disk
+     * @throws IllegalArgumentException
+     *             if the predicate is not an equality predicate, or memPages
+     *             is less than one
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int memPages) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException(
+                    "HashJoin only supports equality predicates");
+        }
+        if (memPages < 1) {
+            throw new IllegalArgumentException("memPages must be positive");
+        }
+        m_p = p;
+        m_child1 = child1;
+        m_child2 = child2;
+        m_memPages = memPages;
+        m_td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return m_p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return m_child1.getTupleDesc().getFieldName(m_p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return m_child2.getTupleDesc().getFieldName(m_p.getField2());
+    }
+
+    /**
+     * @return true if the last open() had to partition the children to disk
+     */
+    public boolean hasSpilled() {
+        return m_spilled;
+    }
+
+    /**
+     * @see simpledb.TupleDesc#merge(TupleDesc, TupleDesc) for possible
+     *      implementation logic.
+     */
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        m_child1.open();
+        m_child2.open();
+        build();
+        super.open();
+    }
+
+    public void close() {
+        m_child1.close();
+        m_child2.close();
+        closeProbe();
+        if (m_joined != null) {
+            for (Partition part : m_joined)
+                part.delete();
+        }
+        if (m_pending != null) {
+            for (Partition part : m_pending)
+                part.delete();
+        }
+        m_joined = null;
+        m_pending = null;
+        m_table = null;
+        m_probeBuffer = null;
+        m_probeTuple = null;
+        m_matches = null;
+        super.close();
+    }
+
+    /**
+     * Hash tables and partitions are kept across a rewind. Without spilling
+     * only the probe child is read again; otherwise the already partitioned
+     * inputs are joined again, partition by partition.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_probeBuffer = null;
+        m_probeTuple = null;
+        m_matches = null;
+        if (!m_spilled) {
+            m_probe.rewind();
+            return;
+        }
+        closeProbe();
+        m_table = null;
+        m_pending.addAll(0, m_joined);
+        m_joined.clear();
+    }
+
+    /**
+     * @return the number of tuples with schema td that fit in the budget
+     */
+    private int budgetTuples(TupleDesc td) {
+        return m_memPages * HeapPage.getNumTuples(td);
+    }
+
+    /**
+     * Reads both children in lock step until one of them is exhausted. If the
+     * exhausted child fits in the memory budget it becomes the build side;
+     * the probe tuples read in the meantime are buffered, never more than the
+     * build side. Once neither child can fit, both are partitioned to disk.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        int budget1 = budgetTuples(m_child1.getTupleDesc());
+        int budget2 = budgetTuples(m_child2.getTupleDesc());
+        ArrayList<Tuple> left = new ArrayList<Tuple>();
+        ArrayList<Tuple> right = new ArrayList<Tuple>();
+        boolean leftMore = m_child1.hasNext();
+        boolean rightMore = m_child2.hasNext();
+        while (leftMore && rightMore
+                && (left.size() < budget1 || right.size() < budget2)) {
+            left.add(m_child1.next());
+            right.add(m_child2.next());
+            leftMore = m_child1.hasNext();
+            rightMore = m_child2.hasNext();
+        }
+
+        m_spilled = false;
+        m_pending = null;
+        m_joined = null;
+        if (!leftMore && left.size() <= budget1) {
+            buildInMemory(true, left, right, m_child2);
+        } else if (!rightMore && right.size() <= budget2) {
+            buildInMemory(false, right, left, m_child1);
+        } else {
+            m_spilled = true;
+            m_pending = new LinkedList<Partition>();
+            m_joined = new ArrayList<Partition>();
+            partition(left, m_child1, right, m_child2, 0);
+            m_table = null;
+            m_probe = null;
+            m_probeBuffer = null;
+        }
+        m_probeTuple = null;
+        m_matches = null;
+    }
+
+    private void buildInMemory(boolean buildLeft, List<Tuple> build,
+            ArrayList<Tuple> probeBuffer, DbIterator probe)
+            throws DbException, TransactionAbortedException {
+        m_buildLeft = buildLeft;
+        int buildField = buildLeft ? m_p.getField1() : m_p.getField2();
+        m_table = new HashMap<Field, ArrayList<Tuple>>();
+        for (Tuple t : build) {
+            addToTable(t, buildField);
+        }
+        m_probeBuffer = probeBuffer;
+        m_probeBufferPos = 0;
+        m_probe = probe;
+    }
+
+    private void addToTable(Tuple t, int buildField) {
+        Field key = t.getField(buildField);
+        ArrayList<Tuple> bucket = m_table.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<Tuple>(1);
+            m_table.put(key, bucket);
+        }
+        bucket.add(t);
+    }
+
+    /**
+     * Hash partitions both inputs of a join into the same number of
+     * partitions and queues the resulting pairs of partitions.
+     *
+     * @param leftBuffer
+     *            tuples already read from left, may be null
+     * @param left
+     *            the rest of the left input
+     * @param rightBuffer
+     *            tuples already read from right, may be null
+     * @param right
+     *            the rest of the right input
+     * @param depth
+     *            how often these inputs have already been partitioned; used
+     *            to pick a different hash function at each level
+     */
+    private void partition(List<Tuple> leftBuffer, DbIterator left,
+            List<Tuple> rightBuffer, DbIterator right, int depth)
+            throws DbException, TransactionAbortedException {
+        int numParts = Math.max(2, m_memPages - 1);
+        Partition[] parts = new Partition[numParts];
+        try {
+            for (int i = 0; i < numParts; i++) {
+                parts[i] = new Partition(depth + 1);
+                parts[i].left = new SpillFile(m_child1.getTupleDesc());
+                parts[i].right = new SpillFile(m_child2.getTupleDesc());
+            }
+            if (leftBuffer != null) {
+                for (Tuple t : leftBuffer)
+                    parts[partitionOf(t.getField(m_p.getField1()), depth, numParts)].left.add(t);
+            }
+            while (left.hasNext()) {
+                Tuple t = left.next();
+                parts[partitionOf(t.getField(m_p.getField1()), depth, numParts)].left.add(t);
+            }
+            if (rightBuffer != null) {
+                for (Tuple t : rightBuffer)
+                    parts[partitionOf(t.getField(m_p.getField2()), depth, numParts)].right.add(t);
+            }
+            while (right.hasNext()) {
+                Tuple t = right.next();
+                parts[partitionOf(t.getField(m_p.getField2()), depth, numParts)].right.add(t);
+            }
+        } catch (IOException e) {
+            for (Partition part : parts) {
+                if (part != null)
+                    part.delete();
+            }
+            throw new DbException("HashJoin cannot spill to disk: " + e);
+        }
+        for (int i = numParts - 1; i >= 0; i--) {
+            if (parts[i].left.numTuples() == 0 || parts[i].right.numTuples() == 0) {
+                // no tuple of this partition can find a match
+                parts[i].delete();
+            } else {
+                m_pending.addFirst(parts[i]);
+            }
+        }
+    }
+
+    /**
+     * Maps a join key to one of numParts partitions. The hash code is mixed
+     * with the partitioning depth, so that a partition that is split again
+     * does not send all of its tuples to the same sub-partition.
+     */
+    private static int partitionOf(Field key, int depth, int numParts) {
+        int h = key.hashCode() ^ (depth * 0x9E3779B9);
+        h *= 0xCC9E2D51;
+        h = (h << 15) | (h >>> 17);
+        h *= 0x1B873593;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % numParts;
+    }
+
+    /**
+     * Takes the next pending partition and loads its smaller side into the
+     * hash table, splitting partitions that do not fit first.
+     *
+     * @return false if there are no more partitions
+     */
+    private boolean nextPartition() throws DbException,
+            TransactionAbortedException {
+        closeProbe();
+        m_table = null;
+        while (!m_pending.isEmpty()) {
+            Partition part = m_pending.removeFirst();
+            boolean buildLeft = part.left.numTuples() <= part.right.numTuples();
+            SpillFile build = buildLeft ? part.left : part.right;
+            SpillFile probe = buildLeft ? part.right : part.left;
+            try {
+                if (build.numTuples() > budgetTuples(build.getTupleDesc())
+                        && part.depth < MAX_PARTITION_DEPTH) {
+                    DbIterator leftIt = part.left.iterator();
+                    DbIterator rightIt = part.right.iterator();
+                    leftIt.open();
+                    rightIt.open();
+                    partition(null, leftIt, null, rightIt, part.depth);
+                    leftIt.close();
+                    rightIt.close();
+                    part.delete();
+                    continue;
+                }
+
+                m_buildLeft = buildLeft;
+                int buildField = buildLeft ? m_p.getField1() : m_p.getField2();
+                m_table = new HashMap<Field, ArrayList<Tuple>>();
+                DbIterator buildIt = build.iterator();
+                buildIt.open();
+                while (buildIt.hasNext()) {
+                    addToTable(buildIt.next(), buildField);
+                }
+                buildIt.close();
+                m_probe = probe.iterator();
+                m_probe.open();
+            } catch (IOException e) {
+                throw new DbException("HashJoin cannot read spilled partition: " + e);
+            }
+            m_joined.add(part);
+            return true;
+        }
+        return false;
+    }
+
+    private void closeProbe() {
+        if (m_spilled && m_probe != null) {
+            m_probe.close();
+        }
+        m_probe = null;
+    }
+
+    /**
+     * @return the next probe side tuple, or null if the probe side is
+     *         exhausted
+     */
+    private Tuple nextProbeTuple() throws DbException,
+            TransactionAbortedException {
+        if (m_probeBuffer != null) {
+            if (m_probeBufferPos < m_probeBuffer.size()) {
+                return m_probeBuffer.get(m_probeBufferPos++);
+            }
+            m_probeBuffer = null;
+        }
+        if (m_probe != null && m_probe.hasNext()) {
+            return m_probe.next();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. As with {@link Join}, the returned tuples are the
+     * concatenation of the matching left and right tuples, regardless of
+     * which side was used to build the hash table.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (m_matches != null && m_matchPos < m_matches.size()) {
+                Tuple match = m_matches.get(m_matchPos++);
+                if (m_buildLeft) {
+                    return mergeTuples(match, m_probeTuple);
+                }
+                return mergeTuples(m_probeTuple, match);
+            }
+            m_probeTuple = nextProbeTuple();
+            if (m_probeTuple == null) {
+                m_matches = null;
+                if (m_spilled && nextPartition()) {
+                    continue;
+                }
+                return null;
+            }
+            int probeField = m_buildLeft ? m_p.getField2() : m_p.getField1();
+            m_matches = m_table.get(m_probeTuple.getField(probeField));
+            m_matchPos = 0;
+        }
+    }
+
+    private Tuple mergeTuples(Tuple left, Tuple right) {
+        int numLeft = left.getTupleDesc().numFields();
+        int numRight = right.getTupleDesc().numFields();
+        Tuple result = new Tuple(m_td);
+        for (int i = 0; i < numLeft; i++) {
+            result.setField(i, left.getField(i));
+        }
+        for (int j = 0; j < numRight; j++) {
+            result.setField(numLeft + j, right.getField(j));
+        }
+        return result;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { m_child1, m_child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        m_child1 = children[0];
+        m_child2 = children[1];
+        m_td = TupleDesc.merge(m_child1.getTupleDesc(), m_child2.getTupleDesc());
+    }
+
+    /**
+     * A pair of corresponding left and right spill partitions.
+     */
+    private static class Partition {
+        SpillFile left;
+        SpillFile right;
+        final int depth;
+
+        Partition(int depth) {
+            this.depth = depth;
+        }
+
+        void delete() {
+            if (left != null)
+                left.delete();
+            if (right != null)
+                right.delete();
+        }
+    }
+
+}
@@ -6,6 +6,8 @@ import java.nio.*;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ByteChannel;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.lang.ref.WeakReference;
 
 
 /**
@@ -15,36 +17,78 @@ import java.nio.ByteBuffer;
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
  * 
+ * <p>
+ * A HeapFile can be opened memory-mapped, for tables that are mostly read,
+ * either with {@link #HeapFile(File, TupleDesc, boolean)} or for every table
+ * by setting the system property simpledb.mapped (e.g. -Dsimpledb.mapped).
+ * Its pages are then read-only views of a mapping of the file, so the
+ * operating system's page cache holds them and reading one neither takes a
+ * system call nor copies the page. The file is mapped again when a page past
+ * the end of the mapping is read. Writes still go through the channel, and
+ * change the mapped bytes; before a page is written, the pages read from it
+ * are given a copy of their bytes, so neither they nor their tuples see the
+ * write.
+ * 
+ * <p>
+ * Which pages have an empty slot is kept in a {@link FreeSpaceMap} stored
+ * next to the file, so that inserts do not have to look for room.
+ * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    /** The number of pages bulkInsert writes after forcing the log once */
+    public static final int BULK_BATCH_PAGES = 16;
+
+    /** The system property that makes new HeapFiles memory-mapped */
+    public static final String MAPPED_PROPERTY = "simpledb.mapped";
 
     private File m_file;
     private TupleDesc m_td;
-	private HashMap<Integer, Boolean> m_free;
+	/** Which pages may have an empty slot */
+	private FreeSpaceMap m_free;
 	private FileChannel m_channel;
+	private final boolean m_mapped;
+	/** Guards m_map and m_views, and orders reads of mapped pages and writes */
+	private final Object m_mapLock = new Object();
+	/** A read-only mapping of the file, made on the first read if m_mapped */
+	private MappedByteBuffer m_map;
+	/** By page number, the pages read from m_map that may still be in use */
+	private final HashMap<Integer, ArrayList<WeakReference<HeapPage>>> m_views =
+			new HashMap<Integer, ArrayList<WeakReference<HeapPage>>>();
     
     /**
-     * Constructs a heap file backed by the specified file.
+     * Constructs a heap file backed by the specified file. It is
+     * memory-mapped if the system property simpledb.mapped is true.
      * 
      * @param f
      *            the file that stores the on-disk backing store for this heap
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, Boolean.getBoolean(MAPPED_PROPERTY));
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally
+     * reading its pages through a memory mapping.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mapped
+     *            true to read the pages of the file through a read-only
+     *            memory mapping of it
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped) {
+        m_mapped = mapped;
         m_file = f;
         m_td = td;
-        m_free = new HashMap<Integer, Boolean>();
         try{
         RandomAccessFile file = new RandomAccessFile(f, "rw");
         m_channel = file.getChannel();
-    	int i = 0;
-       	while(i < numPages()) {
-        	m_free.put(i, false);
-        	i++;
-        }
+        m_free = new FreeSpaceMap(f, m_channel, td);
         }
         catch(IOException e){
         	e.printStackTrace();
@@ -57,30 +101,23 @@ public class HeapFile implements DbFile {
         return m_file;
     }
 
-    private synchronized HeapPage nextFreePg(TransactionId tid)
-    	throws DbException, TransactionAbortedException {
-    	assert (numPages() == m_free.size());
-    	int i = 0;
-    	while( i < this.numPages()){
-    		if (m_free.get(i)) {
-    			HeapPageId pid = new HeapPageId(this.getId(), i);
-    	    	BufferPool bp = Database.getBufferPool();
-    			return (HeapPage) bp.getPage(tid,  pid, Permissions.READ_ONLY);
-    		} 
-    		i++;
-    	}
-    	
-    	HeapPage newPage = null;
+    /**
+     * Returns the id of a page that may have an empty slot, adding an empty
+     * page to the end of the file if no page has one.
+     */
+    private synchronized HeapPageId nextFreePg() throws DbException {
+    	int pgNo = m_free.firstFree();
+    	if (pgNo >= 0)
+    		return new HeapPageId(this.getId(), pgNo);
+
     	HeapPageId pid = new HeapPageId(this.getId(), this.numPages());
     	byte[] data = HeapPage.createEmptyPageData();
     	try {
-    		newPage = new HeapPage(pid, data);
-    		writePage(newPage);
+    		writePage(new HeapPage(pid, data));
     	} catch (IOException e) {
     		 throw new DbException("Can not create new HeapPage");
     	}
-    	m_free.put(newPage.getId().pageNumber(), true);
-    	return newPage;
+    	return pid;
     }
 
     /**
@@ -112,15 +149,115 @@ public class HeapFile implements DbFile {
         return m_td;
     }
 
+    /**
+     * A direct buffer per thread for reading pages, so that reads neither
+     * allocate a buffer nor copy through a temporary one in the channel.
+     */
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BufferPool.PAGE_SIZE);
+        }
+    };
+
+    /**
+     * @return true if pages are read through a memory mapping of the file
+     */
+    public boolean isMapped() {
+        return m_mapped;
+    }
+
+    /**
+     * Returns a mapping of the whole pages of the file that reaches end,
+     * mapping the file again as it is now if the last mapping is too short.
+     * A mapping can be at most Integer.MAX_VALUE bytes. Callers hold
+     * m_mapLock.
+     * 
+     * @return the mapping, or null if end is past the end of the file or of
+     *         the largest mapping
+     */
+    private MappedByteBuffer mapping(long end) throws IOException {
+        if (m_map == null || m_map.capacity() < end) {
+            long size = Math.min(m_channel.size(), Integer.MAX_VALUE);
+            size -= size % BufferPool.PAGE_SIZE;
+            if (size < end)
+                return null;
+            m_map = m_channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        return m_map;
+    }
+
+    /**
+     * Gives each page read from the mapping at page pgNo that is still in
+     * use a copy of its bytes, before they are written over. Callers hold
+     * m_mapLock.
+     */
+    private void detachViews(int pgNo) {
+        ArrayList<WeakReference<HeapPage>> views = m_views.remove(pgNo);
+        if (views == null)
+            return;
+        for (WeakReference<HeapPage> ref : views) {
+            HeapPage page = ref.get();
+            if (page != null)
+                page.detach();
+        }
+    }
+
+    /**
+     * Records that page was read from the mapping at page pgNo, dropping the
+     * pages read from there before that are no longer in use. Callers hold
+     * m_mapLock.
+     */
+    private void addView(int pgNo, HeapPage page) {
+        ArrayList<WeakReference<HeapPage>> views = m_views.get(pgNo);
+        if (views == null) {
+            views = new ArrayList<WeakReference<HeapPage>>(1);
+            m_views.put(pgNo, views);
+        }
+        for (Iterator<WeakReference<HeapPage>> it = views.iterator(); it.hasNext();) {
+            if (it.next().get() == null)
+                it.remove();
+        }
+        views.add(new WeakReference<HeapPage>(page));
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
-        int offset = BufferPool.PAGE_SIZE * pid.pageNumber();
-        byte[] b = new byte[BufferPool.PAGE_SIZE];
+        long offset = (long) BufferPool.PAGE_SIZE * pid.pageNumber();
+        if (m_mapped) {
+            try {
+                synchronized (m_mapLock) {
+                    MappedByteBuffer map = mapping(offset + BufferPool.PAGE_SIZE);
+                    if (map != null) {
+                        ByteBuffer slice = map.duplicate();
+                        slice.limit((int) offset + BufferPool.PAGE_SIZE);
+                        slice.position((int) offset);
+                        HeapPage page = new HeapPage((HeapPageId)pid, slice);
+                        addView(pid.pageNumber(), page);
+                        return page;
+                    }
+                }
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+                return null;
+            }
+            // the page is past the end of the file, or of the largest mapping
+        }
+        ByteBuffer buf = READ_BUFFER.get();
+        buf.clear();
         try{
-            InputStream is = new FileInputStream(m_file);
-            is.skip(offset);
-            is.read(b, 0, BufferPool.PAGE_SIZE);
-            is.close();
+            // positional reads may return fewer bytes than asked for
+            while (buf.hasRemaining()) {
+                int n = m_channel.read(buf, offset + buf.position());
+                if (n < 0)
+                    break;
+            }
+            // past the end of the file the page is empty
+            while (buf.hasRemaining())
+                buf.put((byte) 0);
+            buf.flip();
+            byte[] b = new byte[BufferPool.PAGE_SIZE];
+            buf.get(b);
             return new HeapPage((HeapPageId)pid, b);
         }catch(IOException ioe){
             ioe.printStackTrace();
@@ -133,14 +270,26 @@ public class HeapFile implements DbFile {
         // some code goes here
         // not necessary for lab1
     	int num = page.getId().pageNumber();
-    	boolean free;
-    	if (((HeapPage) page).getNumEmptySlots() > 0)
-    		free = true;
-    	else free = false;
-    	m_free.put(num,free);
+    	if (m_mapped) {
+    		// no page can be read from the mapping between the two
+    		synchronized (m_mapLock) {
+    			detachViews(num);
+    			write(num, page);
+    		}
+    	} else {
+    		write(num, page);
+    	}
+    	// after the write, so the map is stamped with the file as written
+    	m_free.written(num, ((HeapPage) page).hasFreeSlots());
+    }
+
+    /**
+     * Writes the bytes of page to page num of the file.
+     */
+    private void write(int num, Page page) {
     	try {
     		ByteBuffer b = ByteBuffer.wrap(page.getPageData());
-    		int offset = num* BufferPool.PAGE_SIZE;
+    		long offset = (long) num * BufferPool.PAGE_SIZE;
     		m_channel.write(b, offset);
     	}catch(IOException e){
             e.printStackTrace();
@@ -167,18 +316,74 @@ public class HeapFile implements DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
     	BufferPool pool = Database.getBufferPool();
-    	HeapPage freePage = (HeapPage) pool.getPage(tid, nextFreePg(tid).getId(), Permissions.READ_WRITE);
-    	
-    	if (freePage.getNumEmptySlots()>0)
-    	{
-    		freePage.insertTuple(t);
-    		m_free.put(nextFreePg(tid).getId().pageNumber(), freePage.hasFreeSlots());
-    		ArrayList<Page> modifiedPages = new ArrayList<Page>();
-    		freePage.markDirty(true,  tid);
-    		modifiedPages.add(freePage);
-    		return modifiedPages;
+    	while (true) {
+    		HeapPageId pid = nextFreePg();
+    		HeapPage freePage = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+    		if (freePage.hasFreeSlots()) {
+    			freePage.insertTuple(t);
+    			m_free.set(pid.pageNumber(), freePage.hasFreeSlots());
+    			ArrayList<Page> modifiedPages = new ArrayList<Page>();
+    			freePage.markDirty(true,  tid);
+    			modifiedPages.add(freePage);
+    			return modifiedPages;
+    		}
+    		// the map was out of date; look for another page
+    		m_free.set(pid.pageNumber(), false);
     	}
-    	throw new DbException("No space to insert tuple");
+    }
+
+    /**
+     * Appends all the tuples of an open iterator to the end of this file,
+     * packing them into new pages in memory instead of inserting them one at
+     * a time through the buffer pool. Pages are written BULK_BATCH_PAGES at a
+     * time: the write of each page is logged with an empty before image, the
+     * log is forced once, and then the pages are written to the file. Other
+     * inserts into this file wait until the load is done.
+     *
+     * @param tid
+     *            The transaction doing the load.
+     * @param it
+     *            An open iterator over the tuples to add, which must have the
+     *            TupleDesc of this file.
+     * @return The number of tuples added.
+     */
+    public synchronized int bulkInsert(TransactionId tid, DbIterator it)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<HeapPage> batch = new ArrayList<HeapPage>();
+        int pgNo = numPages();
+        HeapPage page = null;
+        int count = 0;
+        while (it.hasNext()) {
+            if (page == null || !page.hasFreeSlots()) {
+                if (batch.size() == BULK_BATCH_PAGES) {
+                    appendPages(tid, batch);
+                    batch.clear();
+                }
+                page = new HeapPage(new HeapPageId(getId(), pgNo++),
+                        HeapPage.createEmptyPageData());
+                batch.add(page);
+            }
+            page.insertTuple(it.next());
+            count++;
+        }
+        appendPages(tid, batch);
+        return count;
+    }
+
+    /**
+     * Logs the writes of new pages, then writes them to the end of the file.
+     */
+    private void appendPages(TransactionId tid, ArrayList<HeapPage> pages)
+            throws IOException {
+        if (pages.isEmpty())
+            return;
+        LogFile log = Database.getLogFile();
+        byte[] empty = HeapPage.createEmptyPageData();
+        for (HeapPage page : pages)
+            log.logWrite(tid, new HeapPage(page.getId(), empty), page);
+        log.force();
+        for (HeapPage page : pages)
+            writePage(page);
     }
 
     // see DbFile.java for javadocs
@@ -189,12 +394,8 @@ public class HeapFile implements DbFile {
     		BufferPool bp = Database.getBufferPool();
     		HeapPage pg = (HeapPage) bp.getPage(tid,  record.getPageId(), Permissions.READ_WRITE);
     		pg.markDirty(true,  tid);
-    		boolean free;
-    		if(pg.getNumEmptySlots()> 0)
-    			free = true;
-    		else free = false;
-    		m_free.put(pg.getId().pageNumber(), free);
     		pg.deleteTuple(t);
+    		m_free.set(pg.getId().pageNumber(), true);
     		ArrayList<Page> dirtyPgs = new ArrayList<Page>();
     		dirtyPgs.add(pg);
     		return dirtyPgs;
@@ -203,7 +404,24 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, 0, -1);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the pages firstPage to
+     * endPage - 1 of this file, so that several threads can each scan a
+     * range of its pages.
+     *
+     * @param tid
+     *            The transaction ID.
+     * @param firstPage
+     *            The number of the first page to scan.
+     * @param endPage
+     *            One past the number of the last page to scan, or -1 to scan
+     *            to the end of the file.
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage) {
+        return new HeapFileIterator(this, tid, firstPage, endPage);
     }
 
     /**
@@ -231,21 +449,60 @@ public class HeapFile implements DbFile {
          */
         HeapFile m_heapFile;
 
+        /**
+         * The number of the first page to scan.
+         */
+        int m_firstPage;
+
+        /**
+         * One past the number of the last page to scan, or -1 for all pages.
+         */
+        int m_endPage;
+
+        /**
+         * One past the number of the last page asked to be read ahead.
+         */
+        int m_readAheadEnd;
+
+        /**
+         * The page being decoded into batches, or null.
+         */
+        HeapPage m_batchPage;
+
+        /**
+         * The next slot of m_batchPage to decode.
+         */
+        int m_batchSlot;
+
         /**
          * Set local variables for HeapFile and Transactionid
          * @param hf The underlying HeapFile.
          * @param tid The transaction ID.
+         * @param firstPage The number of the first page to scan.
+         * @param endPage One past the number of the last page to scan, or -1.
          */
-        public HeapFileIterator(HeapFile hf, TransactionId tid) {            
+        public HeapFileIterator(HeapFile hf, TransactionId tid, int firstPage, int endPage) {
         	m_heapFile = hf;
             m_tid = tid;
+            m_firstPage = firstPage;
+            m_endPage = endPage;
         }
 
         /**
          * Open the iterator, must be called before readNext.
          */
         public void open() throws DbException, TransactionAbortedException {
-            m_currentPageNumber = -1;
+            m_currentPageNumber = m_firstPage - 1;
+            m_readAheadEnd = m_firstPage;
+            m_batchPage = null;
+        }
+
+        /**
+         * @return one past the number of the last page to scan
+         */
+        private int endPage() {
+            int numPages = m_heapFile.numPages();
+            return m_endPage < 0 ? numPages : Math.min(m_endPage, numPages);
         }
 
         @Override
@@ -257,8 +514,10 @@ public class HeapFile implements DbFile {
             }
 
         	// Keep trying to open a tuple iterator until we find one of run out of pages.
-            while (m_tupleIt == null && m_currentPageNumber < m_heapFile.numPages() - 1) {
+            int endPage = endPage();
+            while (m_tupleIt == null && m_currentPageNumber < endPage - 1) {
                 m_currentPageNumber++;		// Go to next page.
+                readAhead(endPage);
                 
                 // Get the iterator for the current page
                 HeapPageId currentPageId = new HeapPageId(m_heapFile.getId(), m_currentPageNumber);
@@ -280,6 +539,46 @@ public class HeapFile implements DbFile {
             return m_tupleIt.next();
         }
 
+        /**
+         * Decodes the next tuples of the scan into batch, straight from the
+         * bytes of their pages, until it is full or the scan is done. A scan
+         * must be read either this way or a tuple at a time.
+         *
+         * @see HeapPage#decodeInto
+         */
+        void fillBatch(TupleBatch batch) throws TransactionAbortedException, DbException {
+            while (!batch.isFull()) {
+                if (m_batchPage == null) {
+                    int endPage = endPage();
+                    if (m_currentPageNumber >= endPage - 1)
+                        return;
+                    m_currentPageNumber++;
+                    readAhead(endPage);
+                    HeapPageId pid = new HeapPageId(m_heapFile.getId(), m_currentPageNumber);
+                    m_batchPage = (HeapPage) Database.getBufferPool().getPage(m_tid,
+                            pid, Permissions.READ_ONLY);
+                    m_batchSlot = 0;
+                }
+                m_batchSlot = m_batchPage.decodeInto(batch, m_batchSlot);
+                if (m_batchSlot == m_batchPage.numSlots)
+                    m_batchPage = null;
+            }
+        }
+
+        /**
+         * Asks the buffer pool to read the pages after the current one in the
+         * background, so that they are cached by the time the scan needs them.
+         */
+        private void readAhead(int endPage) {
+            BufferPool pool = Database.getBufferPool();
+            int last = Math.min(endPage, m_currentPageNumber + 1 + pool.readAheadPages());
+            int first = Math.max(m_readAheadEnd, m_currentPageNumber + 1);
+            for (int p = first; p < last; p++) {
+                pool.prefetch(new HeapPageId(m_heapFile.getId(), p));
+            }
+            m_readAheadEnd = Math.max(m_readAheadEnd, last);
+        }
+
         /**
          * Rewind closes the current iterator and then opens it again.
          */
@@ -294,6 +593,7 @@ public class HeapFile implements DbFile {
         public void close() {
             super.close();
             m_tupleIt = null;
+            m_batchPage = null;
             m_currentPageNumber = Integer.MAX_VALUE;
         }
     }
@@ -105,6 +105,8 @@ public class HeapFileEncoder {
     int nheaderbits = nheaderbytes * 8;
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
+    // a free-space map of an earlier outFile no longer describes it
+    FreeSpaceMap.fileFor(outFile).delete();
     FileOutputStream os = new FileOutputStream(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
@@ -0,0 +1,379 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * HeapFileLoader converts a delimited text file into a heap file, like
+ * {@link HeapFileEncoder}, but on several threads, for large inputs.
+ * <p>
+ * The input is split into chunks of about the same number of bytes. A line
+ * belongs to the chunk its first byte is in. Each chunk is read with
+ * positional reads, parsed straight from its bytes and encoded into pages
+ * by a worker thread. The calling thread writes the pages of each chunk
+ * in input order, with positional writes after the pages of the previous
+ * chunk, so the tuples in the heap file keep the order of the lines. Each
+ * chunk's last page may not be full. Only a few chunks are in memory at a
+ * time.
+ * <p>
+ * The same pass counts the tuples and pages written; see {@link Stats}.
+ */
+public class HeapFileLoader {
+
+    /** The default number of bytes of input per chunk */
+    public static final int DEFAULT_CHUNK_BYTES = 4 << 20;
+
+    private final Type[] m_types;
+
+    private final char m_separator;
+
+    private final int m_pageBytes;
+
+    private int m_parallelism = Runtime.getRuntime().availableProcessors();
+
+    private int m_chunkBytes = DEFAULT_CHUNK_BYTES;
+
+    /**
+     * @param types
+     *            the type of each field of a line
+     * @param fieldSeparator
+     *            the character between the fields of a line
+     */
+    public HeapFileLoader(Type[] types, char fieldSeparator) {
+        this(types, fieldSeparator, BufferPool.getPageSize());
+    }
+
+    /**
+     * @param types
+     *            the type of each field of a line
+     * @param fieldSeparator
+     *            the character between the fields of a line
+     * @param npagebytes
+     *            the number of bytes per page in the output file
+     */
+    public HeapFileLoader(Type[] types, char fieldSeparator, int npagebytes) {
+        if (types.length == 0)
+            throw new IllegalArgumentException("need at least one field");
+        m_types = types.clone();
+        m_separator = fieldSeparator;
+        m_pageBytes = npagebytes;
+    }
+
+    /**
+     * Sets the number of threads that parse the input.
+     */
+    public void setParallelism(int workers) {
+        if (workers < 1)
+            throw new IllegalArgumentException("need at least one worker");
+        m_parallelism = workers;
+    }
+
+    /**
+     * Sets the number of bytes of input per chunk; for tests.
+     */
+    void setChunkBytes(int chunkBytes) {
+        if (chunkBytes < 1)
+            throw new IllegalArgumentException("chunks must not be empty");
+        m_chunkBytes = chunkBytes;
+    }
+
+    /**
+     * What a load learned about the tuples it wrote.
+     */
+    public static class Stats {
+
+        private long m_numTuples;
+
+        private int m_numPages;
+
+        /**
+         * @return the number of tuples written
+         */
+        public long numTuples() {
+            return m_numTuples;
+        }
+
+        /**
+         * @return the number of pages written
+         */
+        public int numPages() {
+            return m_numPages;
+        }
+
+        private void merge(Stats other) {
+            m_numTuples += other.m_numTuples;
+        }
+    }
+
+    /**
+     * Converts inFile into a heap file in outFile, replacing its contents
+     * and deleting its free-space map. An empty input gives a file with one
+     * empty page, as HeapFileEncoder does.
+     *
+     * @return what the load learned about the tuples
+     * @throws IOException
+     *             if a file can't be read or written, or a line is malformed
+     */
+    public Stats load(File inFile, File outFile) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(inFile, "r");
+        // a free-space map of an earlier outFile no longer describes it
+        FreeSpaceMap.fileFor(outFile).delete();
+        RandomAccessFile out = new RandomAccessFile(outFile, "rw");
+        ExecutorService workers = Executors.newFixedThreadPool(m_parallelism,
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "HeapFileLoader worker");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        try {
+            FileChannel input = in.getChannel();
+            FileChannel output = out.getChannel();
+            output.truncate(0);
+            long size = input.size();
+            Stats stats = new Stats();
+            LinkedList<Future<Chunk>> pending = new LinkedList<Future<Chunk>>();
+            long next = 0;
+            while (next < size || !pending.isEmpty()) {
+                // keep every worker busy, with one chunk waiting for each
+                while (next < size && pending.size() < 2 * m_parallelism) {
+                    long end = Math.min(size, next + m_chunkBytes);
+                    pending.add(workers.submit(new Chunk(input, next, end)));
+                    next = end;
+                }
+                Chunk chunk = get(pending.removeFirst());
+                for (ByteBuffer page : chunk.m_pages)
+                    writePage(output, stats.m_numPages++, page);
+                stats.merge(chunk.m_stats);
+            }
+            if (stats.m_numPages == 0)
+                writePage(output, stats.m_numPages++, ByteBuffer.allocate(m_pageBytes));
+            return stats;
+        } finally {
+            workers.shutdownNow();
+            in.close();
+            out.close();
+        }
+    }
+
+    private static Chunk get(Future<Chunk> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void writePage(FileChannel output, int pgNo, ByteBuffer page)
+            throws IOException {
+        long offset = (long) pgNo * m_pageBytes;
+        while (page.hasRemaining())
+            output.write(page, offset + page.position());
+    }
+
+    /**
+     * Reads, parses and encodes the lines that start in a range of the input.
+     */
+    private class Chunk implements Callable<Chunk> {
+
+        private final FileChannel m_input;
+
+        private final long m_start;
+
+        private final long m_end;
+
+        private final ArrayList<ByteBuffer> m_pages = new ArrayList<ByteBuffer>();
+
+        private final Stats m_stats = new Stats();
+
+        private final int m_recordBytes;
+
+        private final int m_slots;
+
+        private final int m_headerBytes;
+
+        private ByteBuffer m_page;
+
+        private int m_numRecords;
+
+        Chunk(FileChannel input, long start, long end) {
+            m_input = input;
+            m_start = start;
+            m_end = end;
+            int recordBytes = 0;
+            for (Type t : m_types)
+                recordBytes += t.getLen();
+            m_recordBytes = recordBytes;
+            m_slots = (m_pageBytes * 8) / (recordBytes * 8 + 1);
+            m_headerBytes = (m_slots + 7) / 8;
+        }
+
+        public Chunk call() throws IOException {
+            long first = Math.max(0, m_start - 1);
+            byte[] bytes = read(first);
+            int pos = (int) (m_start - first);
+            if (m_start > 0 && bytes[0] != '\n') {
+                // the line that is cut off belongs to the previous chunk
+                while (pos < bytes.length && bytes[pos] != '\n')
+                    pos++;
+                pos++;
+            }
+            while (pos < bytes.length && first + pos < m_end) {
+                int eol = pos;
+                while (eol < bytes.length && bytes[eol] != '\n')
+                    eol++;
+                parseLine(bytes, pos, eol);
+                pos = eol + 1;
+            }
+            if (m_page != null)
+                finishPage();
+            return this;
+        }
+
+        /**
+         * Reads from first, one byte before the range unless it starts the
+         * file, to the end of the range and then to the end of the line the
+         * range ends in.
+         */
+        private byte[] read(long first) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate((int) (m_end - first));
+            readFully(buf, first);
+            long size = m_input.size();
+            ByteBuffer more = ByteBuffer.allocate(256);
+            while (buf.get(buf.limit() - 1) != '\n'
+                    && first + buf.limit() < size) {
+                more.clear();
+                readFully(more, first + buf.limit());
+                int n = 0;
+                while (n < more.limit() && more.get(n++) != '\n') {
+                }
+                ByteBuffer grown = ByteBuffer.allocate(buf.limit() + n);
+                more.limit(n);
+                grown.put(buf).put(more).flip();
+                buf = grown;
+            }
+            byte[] bytes = new byte[buf.remaining()];
+            buf.get(bytes);
+            return bytes;
+        }
+
+        private void readFully(ByteBuffer buf, long offset) throws IOException {
+            while (buf.hasRemaining()) {
+                if (m_input.read(buf, offset + buf.position()) < 0)
+                    break;
+            }
+            buf.flip();
+        }
+
+        /**
+         * Encodes the line in bytes[from, to) onto the current page; blank
+         * lines are skipped.
+         */
+        private void parseLine(byte[] bytes, int from, int to) throws IOException {
+            while (to > from && bytes[to - 1] == '\r')
+                to--;
+            if (to == from)
+                return;
+            if (m_page == null)
+                newPage();
+            int field = 0;
+            int start = from;
+            for (int i = from; i <= to; i++) {
+                if (i < to && bytes[i] != m_separator)
+                    continue;
+                if (field == m_types.length)
+                    throw malformed(bytes, from, to);
+                encode(field++, bytes, start, i);
+                start = i + 1;
+            }
+            if (field != m_types.length)
+                throw malformed(bytes, from, to);
+            m_stats.m_numTuples++;
+            if (++m_numRecords == m_slots)
+                finishPage();
+        }
+
+        private IOException malformed(byte[] bytes, int from, int to) {
+            return new IOException("BAD LINE : "
+                    + new String(bytes, from, to - from) + " (expected "
+                    + m_types.length + " fields)");
+        }
+
+        /**
+         * Writes field i, the bytes[from, to) with white space trimmed, at the
+         * position of the page.
+         */
+        private void encode(int i, byte[] bytes, int from, int to) throws IOException {
+            while (from < to && bytes[from] <= ' ')
+                from++;
+            while (to > from && bytes[to - 1] <= ' ')
+                to--;
+            if (m_types[i] == Type.INT_TYPE) {
+                m_page.putInt(parseInt(bytes, from, to));
+            } else {
+                int len = Math.min(to - from, Type.STRING_LEN);
+                m_page.putInt(len);
+                m_page.put(bytes, from, len);
+                m_page.position(m_page.position() + Type.STRING_LEN - len);
+            }
+        }
+
+        private int parseInt(byte[] bytes, int from, int to) throws IOException {
+            boolean negative = from < to && bytes[from] == '-';
+            int i = negative || from < to && bytes[from] == '+' ? from + 1 : from;
+            if (i == to)
+                throw badInt(bytes, from, to);
+            long v = 0;
+            for (; i < to; i++) {
+                int d = bytes[i] - '0';
+                if (d < 0 || d > 9)
+                    throw badInt(bytes, from, to);
+                v = v * 10 + d;
+                if (v > (long) Integer.MAX_VALUE + 1)
+                    throw badInt(bytes, from, to);
+            }
+            v = negative ? -v : v;
+            if (v > Integer.MAX_VALUE)
+                throw badInt(bytes, from, to);
+            return (int) v;
+        }
+
+        private IOException badInt(byte[] bytes, int from, int to) {
+            return new IOException("BAD INT : " + new String(bytes, from, to - from));
+        }
+
+        private void newPage() {
+            m_page = ByteBuffer.allocate(m_pageBytes);
+            m_page.position(m_headerBytes);
+            m_numRecords = 0;
+        }
+
+        /**
+         * Sets the header bits of the records on the current page and adds it
+         * to the chunk's pages.
+         */
+        private void finishPage() {
+            for (int r = 0; r < m_numRecords; r++)
+                m_page.put(r / 8, (byte) (m_page.get(r / 8) | (1 << (r % 8))));
+            m_page.clear();
+            m_pages.add(m_page);
+            m_page = null;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -20,6 +21,23 @@ public class HeapPage implements Page {
     int numSlots;
 
     byte[] oldData;
+    /**
+     * The bytes the page was read from, standing in for oldData until the
+     * before image is first needed or set
+     */
+    private ByteBuffer m_source;
+    /**
+     * The bytes the page was read from. Tuples are only decoded from them
+     * when they are first asked for, and their fields when those are.
+     */
+    private volatile ByteBuffer m_data;
+    /** The offset of each field from the start of a tuple */
+    private int[] m_fieldOffsets;
+    /**
+     * The bytes of the page as it is now, kept up to date by insertTuple and
+     * deleteTuple; null until the page is first changed or serialized
+     */
+    private byte[] m_image;
     private boolean m_dirty;
     private TransactionId m_dtid;
 
@@ -40,36 +58,76 @@ public class HeapPage implements Page {
      * @see BufferPool#PAGE_SIZE
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage from a set of bytes of data, using the given schema
+     * rather than looking it up in the Catalog. Used for pages of files that
+     * are not registered as tables, such as {@link SpillFile}s.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, byte[] data, TupleDesc td) throws IOException {
+        // the page reads its tuples from data, so data must not change, and
+        // it can also be the before image until setBeforeImage is called
+        this(id, ByteBuffer.wrap(data), td);
+        oldData = data;
+        m_source = null;
+    }
+
+    /**
+     * Create a HeapPage from the bytes of data between its position and
+     * limit, without copying them into an array first. The page keeps a view
+     * of those bytes as its before image until {@link #setBeforeImage} is
+     * called, and decodes its tuples from them when they are read, so they
+     * must not change while the page or its tuples are in use, unless
+     * {@link #detach} is called first.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage from the bytes of data between its position and
+     * limit, using the given schema.
+     *
+     * @see #HeapPage(HeapPageId, ByteBuffer)
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data, TupleDesc td) throws IOException {
     	m_dirty = false;
     	m_dtid = null;
     	
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        m_source = data.slice().asReadOnlyBuffer();
+        m_data = m_source;
+        m_fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<m_fieldOffsets.length; j++)
+            m_fieldOffsets[j] = m_fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        } catch(NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
+        m_data.duplicate().get(header);
 
-        setBeforeImage();
+        // tuples are decoded by getTuple
+        tuples = new Tuple[numSlots];
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {
+        return getNumTuples(td);
+    }
+
+    /**
+     * @return the number of tuple slots on a page holding tuples of schema td
+     */
+    static int getNumTuples(TupleDesc td) {
         double bufferSize = BufferPool.PAGE_SIZE * 8;
         double tupleSize = (td.getSize() * 8) + 1;
 
@@ -81,7 +139,14 @@ public class HeapPage implements Page {
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
     private int getHeaderSize() {
-        double numTuples = getNumTuples();
+        return getHeaderSize(td);
+    }
+
+    /**
+     * @return the number of header bytes on a page holding tuples of schema td
+     */
+    static int getHeaderSize(TupleDesc td) {
+        double numTuples = getNumTuples(td);
         return (int) Math.ceil(numTuples / 8);
     }
     
@@ -89,7 +154,12 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            byte[] before = oldData;
+            if (before == null) {
+                before = new byte[m_source.remaining()];
+                m_source.duplicate().get(before);
+            }
+            return new HeapPage(pid,before,td);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -99,48 +169,39 @@ public class HeapPage implements Page {
     }
     
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        oldData = getPageData();
+        m_source = null;
     }
 
     /**
-     * @return the PageId associated with this page.
+     * @return the bytes the page was read from, which its tuples decode their
+     *         fields from
      */
-    public HeapPageId getId() {
-        return this.pid;
+    ByteBuffer data() {
+        return m_data;
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Copies the bytes the page was read from into an array of its own, so
+     * that neither the page nor its tuples read them any more. Called by
+     * {@link HeapFile} before it writes over the bytes of a memory-mapped
+     * file that this page is a view of.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
+    synchronized void detach() {
+        ByteBuffer data = m_data;
+        byte[] copy = new byte[data.remaining()];
+        data.duplicate().get(copy);
+        ByteBuffer detached = ByteBuffer.wrap(copy).asReadOnlyBuffer();
+        if (m_source == data)
+            m_source = detached;
+        m_data = detached;
+    }
 
-        return t;
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return this.pid;
     }
 
     /**
@@ -150,69 +211,55 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p>
+     * The page keeps its bytes up to date as tuples are inserted and
+     * deleted, so this is a copy of them. Tuples on the page must therefore
+     * not be changed in place.
      *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
+        return image().clone();
+    }
 
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+    /**
+     * @return the current bytes of this page, copying them from the bytes it
+     *         was read from the first time
+     */
+    private byte[] image() {
+        byte[] image = m_image;
+        if (image == null) {
+            image = new byte[BufferPool.PAGE_SIZE];
+            ByteBuffer src = m_data.duplicate();
+            src.get(image, 0, Math.min(image.length, src.remaining()));
+            m_image = image;
         }
+        return image;
+    }
 
-        // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Writes the fields of t into slot i of the page bytes, or zeroes the
+     * slot if t is null.
+     */
+    private void writeSlot(int i, Tuple t) {
+        byte[] image = image();
+        int offset = header.length + i * td.getSize();
+        if (t == null) {
+            Arrays.fill(image, offset, offset + td.getSize(), (byte) 0);
+            return;
         }
-
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
         try {
+            for (int j=0; j<td.numFields(); j++)
+                t.getField(j).serialize(dos);
             dos.flush();
         } catch (IOException e) {
+            // this really shouldn't happen
             e.printStackTrace();
         }
-
-        return baos.toByteArray();
+        System.arraycopy(baos.toByteArray(), 0, image, offset, td.getSize());
     }
 
     /**
@@ -237,6 +284,8 @@ public class HeapPage implements Page {
      * @param t The tuple to delete
      */
     public void deleteTuple(Tuple t) throws DbException {
+    	// the slot's bytes may be reused, so t must not read them later
+    	t.decodeAll();
     	RecordId rid = t.getRecordId();
     	this.tuples[rid.tupleno()] = null;
     	if (rid.getPageId() != this.pid || !isSlotUsed(rid.tupleno())) {
@@ -244,6 +293,7 @@ public class HeapPage implements Page {
     	}
 
     	markSlotUsed(rid.tupleno(), false);
+    	writeSlot(rid.tupleno(), null);
     }
 
     /**
@@ -275,6 +325,7 @@ public class HeapPage implements Page {
     	t.setRecordId(newId);
     	boolean used = true;
     	markSlotUsed(slot, used);
+    	writeSlot(slot, t);
     }
 
     /**
@@ -376,6 +427,7 @@ public class HeapPage implements Page {
      		mask = header[i/8] & ~(1 <<(i % 8));
      		header[i/8] = (byte)mask;
      	}
+    	image()[i/8] = header[i/8];
     }
 
     /**
@@ -395,17 +447,72 @@ public class HeapPage implements Page {
      */
     protected Tuple getTuple(int i) throws NoSuchElementException {
 
+        // the header may have spare bits past the last slot
+        if (i >= numSlots) {
+            throw new NoSuchElementException();
+        }
         try {
             if(!isSlotUsed(i)) {                
                 return null;
             } else {            
-            	return tuples[i];
+            	Tuple t = tuples[i];
+            	if (t == null) {
+            		t = new Tuple(td, this, header.length + i * td.getSize(), m_fieldOffsets);
+            		t.setRecordId(new RecordId(pid, i));
+            		tuples[i] = t;
+            	}
+            	return t;
             }
         } catch (ArrayIndexOutOfBoundsException e) {
             throw new NoSuchElementException();
         }
     }
     
+    /**
+     * Decodes the tuples in the used slots of this page, from slot onwards,
+     * into new rows of batch until it is full. Their fields are read straight
+     * from the bytes of the page into the batch's vectors, so no Tuple or
+     * Field objects are made.
+     *
+     * @return the slot to continue from, or the number of slots if all the
+     *         tuples were decoded
+     */
+    int decodeInto(TupleBatch batch, int slot) {
+        byte[] image = m_image;
+        ByteBuffer src = image != null ? ByteBuffer.wrap(image) : m_data.duplicate();
+        int numFields = m_fieldOffsets.length;
+        int[][] ints = new int[numFields][];
+        StringVector[] strings = new StringVector[numFields];
+        for (int j = 0; j < numFields; j++) {
+            ColumnVector col = batch.column(j);
+            if (col instanceof IntVector)
+                ints[j] = ((IntVector) col).values;
+            else
+                strings[j] = (StringVector) col;
+        }
+        for (; slot < numSlots; slot++) {
+            if (!isSlotUsed(slot))
+                continue;
+            if (batch.isFull())
+                return slot;
+            int r = batch.addRow(pid, slot);
+            int base = header.length + slot * td.getSize();
+            for (int j = 0; j < numFields; j++) {
+                int pos = base + m_fieldOffsets[j];
+                if (ints[j] != null) {
+                    ints[j][r] = src.getInt(pos);
+                } else {
+                    // as in Type.STRING_TYPE.parse
+                    int len = Math.max(0, Math.min(src.getInt(pos), Type.STRING_LEN));
+                    src.position(pos + Type.INT_TYPE.getLen());
+                    src.get(strings[j].bytes, StringVector.offset(r), len);
+                    strings[j].lengths[r] = len;
+                }
+            }
+        }
+        return numSlots;
+    }
+
     /**
      * Helper class that implements the Java Iterator for tuples on a HeapPage.
      */
@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * HintedEvictionPolicy honours the {@link CacheHint} of the table each page
+ * belongs to, and leaves the pages of DEFAULT tables to another policy.
+ * RECYCLE pages are evicted first, least recently used first; then DEFAULT
+ * pages, as the other policy chooses; and KEEP pages only when no other page
+ * can be evicted.
+ * <p>
+ * The {@link BufferPool} wraps the policy it is given in one of these, so
+ * every policy honours the hints.
+ */
+class HintedEvictionPolicy implements EvictionPolicy {
+
+    private final EvictionPolicy m_delegate;
+
+    /** The hint of each page that is not DEFAULT */
+    private final HashMap<PageId, CacheHint> m_hints = new HashMap<PageId, CacheHint>();
+
+    /** KEEP pages, least recently used first */
+    private final LinkedHashMap<PageId, Boolean> m_keep =
+        new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+
+    /** RECYCLE pages, least recently used first */
+    private final LinkedHashMap<PageId, Boolean> m_recycle =
+        new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+
+    /**
+     * @param delegate
+     *            the policy for the pages of DEFAULT tables
+     */
+    HintedEvictionPolicy(EvictionPolicy delegate) {
+        m_delegate = delegate;
+    }
+
+    /**
+     * Called when a page of a table with the given hint is read into the
+     * buffer pool.
+     */
+    public synchronized void pageLoaded(PageId pid, CacheHint hint) {
+        pageRemoved(pid);
+        switch (hint) {
+        case KEEP:
+            m_keep.put(pid, true);
+            m_hints.put(pid, hint);
+            break;
+        case RECYCLE:
+            m_recycle.put(pid, true);
+            m_hints.put(pid, hint);
+            break;
+        default:
+            m_delegate.pageLoaded(pid);
+            break;
+        }
+    }
+
+    public void pageLoaded(PageId pid) {
+        pageLoaded(pid, CacheHint.DEFAULT);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        CacheHint hint = m_hints.get(pid);
+        if (hint == CacheHint.KEEP)
+            m_keep.get(pid);
+        else if (hint == CacheHint.RECYCLE)
+            m_recycle.get(pid);
+        else
+            m_delegate.pageAccessed(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        CacheHint hint = m_hints.remove(pid);
+        if (hint == CacheHint.KEEP)
+            m_keep.remove(pid);
+        else if (hint == CacheHint.RECYCLE)
+            m_recycle.remove(pid);
+        else
+            m_delegate.pageRemoved(pid);
+    }
+
+    public synchronized PageId chooseVictim(Candidates candidates) {
+        PageId victim = leastRecentlyUsed(m_recycle, candidates);
+        if (victim == null)
+            victim = m_delegate.chooseVictim(candidates);
+        if (victim == null)
+            victim = leastRecentlyUsed(m_keep, candidates);
+        return victim;
+    }
+
+    private static PageId leastRecentlyUsed(LinkedHashMap<PageId, Boolean> pages,
+            Candidates candidates) {
+        Iterator<PageId> it = pages.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (candidates.canEvict(pid))
+                return pid;
+        }
+        return null;
+    }
+}
@@ -6,6 +6,12 @@ import java.util.NoSuchElementException;
 /**
  * Inserts tuples read from the child operator into the tableid specified in the
  * constructor
+ * <p>
+ * In bulk mode the tuples are appended to the table on new pages instead, see
+ * {@link HeapFile#bulkInsert}. This is much faster for large loads, but does
+ * not reuse free space in the table's existing pages, and the new pages are
+ * written to disk when the insert runs rather than when the transaction
+ * commits.
  */
 public class Insert extends Operator {
 
@@ -24,6 +30,8 @@ public class Insert extends Operator {
     private boolean isinvoked;
     private boolean tupleadded;
 
+    private boolean m_bulk;
+
     /**
      * Constructor.
      * 
@@ -39,7 +47,29 @@ public class Insert extends Operator {
      */
     public Insert(TransactionId t,DbIterator child, int tableid)
             throws DbException {
+        this(t, child, tableid, false);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param t
+     *            The transaction running the insert.
+     * @param child
+     *            The child operator from which to read tuples to be inserted.
+     * @param tableid
+     *            The table in which to insert tuples.
+     * @param bulk
+     *            True to append the tuples to the table on new pages, if it is
+     *            a HeapFile.
+     * @throws DbException
+     *             if TupleDesc of child differs from table into which we are to
+     *             insert.
+     */
+    public Insert(TransactionId t,DbIterator child, int tableid, boolean bulk)
+            throws DbException {
         m_t = t;
+        m_bulk = bulk;
         m_child = child;
         m_tableid = tableid;
         /*if(this.m_child.getTupleDesc() != Database.getCatalog().getTupleDesc(m_tableid)){
@@ -50,6 +80,13 @@ public class Insert extends Operator {
         isinvoked = false;
     }
 
+    /**
+     * @return true if the tuples are appended to the table on new pages
+     */
+    public boolean isBulk() {
+        return m_bulk;
+    }
+
     public TupleDesc getTupleDesc() {
     	return m_td;
     }
@@ -90,15 +127,24 @@ public class Insert extends Operator {
     		return null;
     	}
     	m_child.open();
-    	while(m_child.hasNext()){
+    	DbFile file = Database.getCatalog().getDatabaseFile(m_tableid);
+    	if(m_bulk && file instanceof HeapFile){
     		try {
-				Database.getBufferPool().insertTuple(m_t, m_tableid, m_child.next());
-				num_records++;
-			} catch (NoSuchElementException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+    			num_records += ((HeapFile) file).bulkInsert(m_t, m_child);
+    		} catch (IOException e) {
+    			throw new DbException("bulk insert failed: " + e.getMessage());
+    		}
+    	}else{
+    		while(m_child.hasNext()){
+    			try {
+    				Database.getBufferPool().insertTuple(m_t, m_tableid, m_child.next());
+    				num_records++;
+    			} catch (NoSuchElementException e) {
+    				e.printStackTrace();
+    			} catch (IOException e) {
+    				e.printStackTrace();
+    			}
+    		}
     	}
     	Tuple result = new Tuple(m_td);
     	Field num_inserted = new IntField(num_records);
@@ -0,0 +1,34 @@
+package simpledb;
+
+/**
+ * A column of int values.
+ */
+public class IntVector extends ColumnVector {
+
+    /** The value of each row */
+    final int[] values;
+
+    IntVector(int capacity) {
+        values = new int[capacity];
+    }
+
+    public Type getType() {
+        return Type.INT_TYPE;
+    }
+
+    public int get(int row) {
+        return values[row];
+    }
+
+    public void set(int row, int v) {
+        values[row] = v;
+    }
+
+    public Field getField(int row) {
+        return new IntField(values[row]);
+    }
+
+    public void setField(int row, Field f) {
+        values[row] = ((IntField) f).getValue();
+    }
+}
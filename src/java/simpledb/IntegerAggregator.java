@@ -1,38 +1,38 @@
 package simpledb;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Groups are numbered by a {@link GroupTable}, and the state of each group is
+ * kept in primitive arrays indexed by group number: a running value (the
+ * MIN, MAX or SUM so far) and the number of tuples merged. AVG is only
+ * computed from the sum and count when {@link #iterator} is called.
  */
 public class IntegerAggregator implements Aggregator {
-	
+
+	private static final int INITIAL_GROUPS = 16;
+
 	private int m_gbfield;
-	
+
 	private Type m_gbfieldtype;
-	
+
 	private int m_afield;
-	
-	private int ngb_count;
-	
-	private int ngb_sum;
-	
+
 	private Op m_what;
-	
-	private HashMap<Field,Integer> agg_map; //hashmap between groupvalue and aggregatevalue
-	
-	private HashMap<Field,Integer> field_count; //use this map to count # of apperance of a Field
-	
-	private HashMap<Field,Integer> sum_map;
-	
-	private int no_grouping_agg;//integer  which stores aggregate value when no_grouping is specified
-	
+
+	private GroupTable m_groups; //null when no_grouping is specified
+
+	private long[] m_values; //per group: MIN, MAX or SUM so far
+
+	private long[] m_counts; //per group: # of tuples merged
+
     private static final long serialVersionUID = 1L;
 
     /**
      * Aggregate constructor
-     * 
+     *
      * @param gbfield
      *            the 0-based index of the group-by field in the tuple, or
      *            NO_GROUPING if there is no grouping
@@ -43,148 +43,111 @@ public class IntegerAggregator implements Aggregator {
      *            the 0-based index of the aggregate field in the tuple
      * @param what
      *            the aggregation operator
+     * @throws IllegalArgumentException
+     *             if what is not one of MIN, MAX, SUM, AVG or COUNT
      */
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        if (what == Op.SUM_COUNT || what == Op.SC_AVG) {
+            throw new IllegalArgumentException("Unsupported aggregate " + what);
+        }
         m_gbfield = gbfield;
         m_gbfieldtype = gbfieldtype;
         m_afield = afield;
         m_what = what;
-        field_count = new HashMap<Field,Integer>();
-        sum_map = new HashMap<Field,Integer>();
-        ngb_count = 0;
         if(m_gbfield != Aggregator.NO_GROUPING){
-        	agg_map = new HashMap<Field,Integer>();
+        	m_groups = new GroupTable(gbfieldtype);
+        	m_values = new long[INITIAL_GROUPS];
+        	m_counts = new long[INITIAL_GROUPS];
         }
         else{
-        	no_grouping_agg = 0;
+        	m_values = new long[1];
+        	m_counts = new long[1];
         }
     }
 
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
      * constructor
-     * 
+     *
      * @param tup
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-    	//with group by
-    	if(m_gbfield != Aggregator.NO_GROUPING){
+    	int g = 0;
+    	if(m_groups != null){
     		Field cur_field = tup.getField(m_gbfield);
     		//Aggregate field only if type matches
-    		if(cur_field.getType() == m_gbfieldtype){
-        		int cur_agg_value = ((IntField)tup.getField(m_afield)).getValue();
-        		
-        		//Aggregate MAX
-        		if(m_what == Aggregator.Op.MAX){
-        			if(agg_map.containsKey(cur_field)){
-        				int cur_max = agg_map.get(cur_field);
-        				agg_map.put(cur_field, (cur_max>cur_agg_value ? cur_max : cur_agg_value));
-        			}else{
-        				agg_map.put(cur_field,cur_agg_value);
-        			}
-        		}
-        		
-        		//Aggregate MIN
-        		else if(m_what == Aggregator.Op.MIN){
-        			if(agg_map.containsKey(cur_field)){
-        				int cur_min = agg_map.get(cur_field);
-        				agg_map.put(cur_field, (cur_min<cur_agg_value ? cur_min : cur_agg_value));
-        			}else{
-        				agg_map.put(cur_field,cur_agg_value);
-        			}
-        		}
-        		
-        		//Aggregate SUM
-        		else if(m_what == Aggregator.Op.SUM){
-        			if(agg_map.containsKey(cur_field)){
-        				int cur_sum = agg_map.get(cur_field);
-        				agg_map.put(cur_field, cur_sum+cur_agg_value);
-        			}else{
-        				agg_map.put(cur_field,cur_agg_value);
-        			}	
-        		}
-        		
-        		//Aggregate AVG
-        		else if(m_what == Aggregator.Op.AVG){
-        			if(agg_map.containsKey(cur_field)){
-        				int cur_count = field_count.get(cur_field);
-        				int cur_sum = sum_map.get(cur_field);
-        				agg_map.put(cur_field, (cur_sum+cur_agg_value)/(cur_count+1));
-        				field_count.put(cur_field, cur_count+1);
-        				sum_map.put(cur_field, cur_sum+cur_agg_value);
-        			}
-        			else{
-        				agg_map.put(cur_field,cur_agg_value);
-        				field_count.put(cur_field, 1);
-        				sum_map.put(cur_field,cur_agg_value);
-        			}
-        		}
-        		
-        		//Aggregate COUNT
-        		else if(m_what == Aggregator.Op.COUNT){
-        			if(agg_map.containsKey(cur_field)){
-        				int cur_count = agg_map.get(cur_field);
-        				agg_map.put(cur_field, cur_count+1);
-        			}else{
-        				agg_map.put(cur_field,1);
-        			}
-        		}	
-    		}
-    	}
-    	//without group by
-    	else{
-    		int cur_agg_value = ((IntField)tup.getField(m_afield)).getValue();
-    		
-    		//Aggregate AVG
-    		if(m_what == Aggregator.Op.AVG){
-    			if(no_grouping_agg == 0){
-    				no_grouping_agg = cur_agg_value;
-    				ngb_count = 1;
-    				ngb_sum = cur_agg_value;
-    			}else{
-        			no_grouping_agg = (ngb_sum + cur_agg_value)/(ngb_count+1);
-        			ngb_count++;
-        			ngb_sum += cur_agg_value;
-    			}
-    		}
-    		
-    		//Aggregate MAX
-    		else if(m_what == Aggregator.Op.MAX){
-    			no_grouping_agg = no_grouping_agg > cur_agg_value ? no_grouping_agg : cur_agg_value;
-    		}
-    		
-    		//Aggregate MIN
-    		else if(m_what == Aggregator.Op.MIN){
-    			no_grouping_agg = no_grouping_agg < cur_agg_value ? no_grouping_agg : cur_agg_value;
+    		if(cur_field.getType() != m_gbfieldtype){
+    			return;
     		}
-    		
-    		//Aggregate SUM
-    		else if(m_what == Aggregator.Op.SUM){
-    			no_grouping_agg += cur_agg_value;
-    		}
-    		//Aggregate COUNT
-    		else if(m_what == Aggregator.Op.COUNT){
-    			no_grouping_agg++;
+    		g = m_groups.indexOf(cur_field);
+    		if(g == m_counts.length){
+    			m_values = Arrays.copyOf(m_values, g * 2);
+    			m_counts = Arrays.copyOf(m_counts, g * 2);
     		}
     	}
+    	long cur_agg_value = ((IntField)tup.getField(m_afield)).getValue();
+    	boolean first = m_counts[g]++ == 0;
+    	switch(m_what){
+    	case MIN:
+    		if(first || cur_agg_value < m_values[g])
+    			m_values[g] = cur_agg_value;
+    		break;
+    	case MAX:
+    		if(first || cur_agg_value > m_values[g])
+    			m_values[g] = cur_agg_value;
+    		break;
+    	case SUM:
+    	case AVG:
+    		m_values[g] += cur_agg_value;
+    		break;
+    	default:
+    		//COUNT only needs m_counts
+    		break;
+    	}
+    }
+
+    /**
+     * @return the aggregate value of group g
+     */
+    private int aggregateValue(int g) {
+    	switch(m_what){
+    	case COUNT:
+    		return (int) m_counts[g];
+    	case AVG:
+    		return m_counts[g] == 0 ? 0 : (int) (m_values[g] / m_counts[g]);
+    	default:
+    		return (int) m_values[g];
+    	}
     }
 
     /**
      * Create a DbIterator over group aggregate results.
-     * 
+     *
      * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
      *         if using group, or a single (aggregateVal) if no grouping. The
      *         aggregateVal is determined by the type of aggregate specified in
      *         the constructor.
      */
     public DbIterator iterator() {
-    	if(m_gbfield == Aggregator.NO_GROUPING){
-        	return new IntegerAggregatorIterator(no_grouping_agg);
+    	ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    	TupleDesc td;
+    	if(m_groups == null){
+    		td = new TupleDesc(new Type[]{Type.INT_TYPE});
+    		Tuple t = new Tuple(td);
+    		t.setField(0, new IntField(aggregateValue(0)));
+    		tuples.add(t);
     	}else{
-        	return new IntegerAggregatorIterator(agg_map, m_gbfieldtype);
+    		td = new TupleDesc(new Type[]{m_gbfieldtype, Type.INT_TYPE});
+    		for(int g = 0; g < m_groups.size(); g++){
+    			Tuple t = new Tuple(td);
+    			t.setField(0, m_groups.key(g));
+    			t.setField(1, new IntField(aggregateValue(g)));
+    			tuples.add(t);
+    		}
     	}
+    	return new TupleIterator(td, tuples);
     }
 
 }
@@ -3,25 +3,41 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation for arbitrary
+ * predicates, as a block nested loops join.
+ * 
+ * @see HashJoin
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
     
+    /**
+     * Default number of pages worth of outer tuples buffered per block.
+     */
+    public static final int DEFAULT_BLOCK_PAGES = BufferPool.DEFAULT_PAGES - 2;
+    
     private DbIterator m_child1;
     
     private DbIterator m_child2;
     
     private JoinPredicate m_p;
     
-    private DbIterator cur_outer;
+    private TupleDesc m_td;
     
-    private boolean inner_not_done = false;
+    private int m_blockPages;
     
-    private boolean need_more_outer = true;
+    /*
+     * the outer tuples of the current block; null before the first block
+     */
+    private ArrayList<Tuple> m_block = null;
     
-    private Tuple child1_tuple = null;
+    private int m_blockPos;
+    
+    /*
+     * the inner tuple currently being compared against the block
+     */
+    private Tuple m_innerTuple = null;
     
 
     /**
@@ -36,9 +52,41 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor for a block nested loops join, which reads the outer
+     * relation in blocks of blockPages pages worth of tuples and scans the
+     * inner relation once per block rather than once per outer tuple.
+     * 
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param blockPages
+     *            The number of pages worth of outer tuples per block; 1
+     *            still buffers one page worth of outer tuples
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2, int blockPages) {
+        if (blockPages < 1) {
+            throw new IllegalArgumentException("blockPages must be positive");
+        }
         m_child1 = child1;
         m_child2 = child2;
         m_p = p;
+        m_blockPages = blockPages;
+        m_td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the number of outer tuples buffered per block when the outer
+     *         relation has schema td
+     */
+    public static int blockTuples(TupleDesc td, int blockPages) {
+        return blockPages * HeapPage.getNumTuples(td);
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -68,32 +116,58 @@ public class Join extends Operator {
      *      implementation logic.
      */
     public TupleDesc getTupleDesc() {
-    	return TupleDesc.merge(m_child1.getTupleDesc(), m_child2.getTupleDesc());
+    	return m_td;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
        m_child1.open();
        m_child2.open();
+       m_block = null;
+       m_innerTuple = null;
        super.open();
     }
 
     public void close() {
     	m_child1.close();
     	m_child2.close();
+    	m_block = null;
+    	m_innerTuple = null;
     	super.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
     	m_child1.rewind();
     	m_child2.rewind();
+    	m_block = null;
+    	m_innerTuple = null;
+    }
+
+    /**
+     * Reads the next block of outer tuples.
+     * 
+     * @return false if the outer relation is exhausted
+     */
+    private boolean nextBlock() throws DbException, TransactionAbortedException {
+        int max = blockTuples(m_child1.getTupleDesc(), m_blockPages);
+        if (m_block == null) {
+            m_block = new ArrayList<Tuple>();
+        } else {
+            m_block.clear();
+        }
+        while (m_block.size() < max && m_child1.hasNext()) {
+            m_block.add(m_child1.next());
+        }
+        return !m_block.isEmpty();
     }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
      * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * the simplest is a nested loops join. This one is a block nested loops
+     * join: each inner tuple is compared against a whole block of buffered
+     * outer tuples, so the inner relation is rescanned once per block.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -108,34 +182,46 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-    	if(!inner_not_done){
-    		need_more_outer = m_child1.hasNext();
-    	}
-        while(need_more_outer){
-        	if(!inner_not_done){
-        		child1_tuple = m_child1.next();
-        	}
-        	int child1_num_field = child1_tuple.getTupleDesc().numFields();
-        	while(m_child2.hasNext()){
-        		Tuple child2_tuple = m_child2.next();
-        		int child2_num_field = child2_tuple.getTupleDesc().numFields();
-        		if(this.getJoinPredicate().filter(child1_tuple, child2_tuple)){
-        			inner_not_done = true;
-            		Tuple result = new Tuple(this.getTupleDesc());
-            		for(int i = 0; i < child1_num_field;i++){
-            			result.setField(i, child1_tuple.getField(i));
-            		}
-            		for(int j = 0; j < child2_num_field;j++){
-            			result.setField(j+child1_num_field, child2_tuple.getField(j));
-            		}
-            		return result;
-        		}
-        	}
-        	inner_not_done = false;
-        	need_more_outer = m_child1.hasNext();
-        	m_child2.rewind();
-    	}
-        return null;
+        if (m_block == null) {
+            nextBlock();
+        }
+        if (m_block.isEmpty()) {
+            return null;
+        }
+        while (true) {
+            if (m_innerTuple != null) {
+                while (m_blockPos < m_block.size()) {
+                    Tuple outer = m_block.get(m_blockPos++);
+                    if (m_p.filter(outer, m_innerTuple)) {
+                        return mergeTuples(outer, m_innerTuple);
+                    }
+                }
+                m_innerTuple = null;
+            }
+            if (m_child2.hasNext()) {
+                m_innerTuple = m_child2.next();
+                m_blockPos = 0;
+                continue;
+            }
+            // the inner relation has been compared against the whole block
+            if (!nextBlock()) {
+                return null;
+            }
+            m_child2.rewind();
+        }
+    }
+
+    private Tuple mergeTuples(Tuple outer, Tuple inner) {
+        int child1_num_field = outer.getTupleDesc().numFields();
+        int child2_num_field = inner.getTupleDesc().numFields();
+        Tuple result = new Tuple(m_td);
+        for (int i = 0; i < child1_num_field; i++) {
+            result.setField(i, outer.getField(i));
+        }
+        for (int j = 0; j < child2_num_field; j++) {
+            result.setField(j + child1_num_field, inner.getField(j));
+        }
+        return result;
     }
 
     @Override
@@ -147,6 +233,7 @@ public class Join extends Operator {
     public void setChildren(DbIterator[] children) {
     	m_child1 = children[0];
     	m_child2 = children[1];
+    	m_td = TupleDesc.merge(m_child1.getTupleDesc(), m_child2.getTupleDesc());
     }
 
 }
@@ -11,6 +11,13 @@ import javax.swing.tree.*;
  * logical plan.
  */
 public class JoinOptimizer {
+    /**
+     * The schema assumed for the outer tuples of a join whose left side is
+     * not a base table, when sizing its blocks: two int fields
+     */
+    static final TupleDesc DEFAULT_OUTER_TD = new TupleDesc(new Type[] {
+            Type.INT_TYPE, Type.INT_TYPE });
+
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
@@ -34,6 +41,15 @@ public class JoinOptimizer {
      * inner/outer here -- because DbIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * Equality joins whose subplans are already ordered on the join fields
+     * (for example a filtered ORDER BY subplan or another merge join on the
+     * same field) are instantiated as a {@link SortMergeJoin}, which then
+     * needs no sort, and other equality joins as a {@link HashJoin}. Range
+     * joins (&lt;, &lt;=, &gt;, &gt;=) are always instantiated as a
+     * SortMergeJoin, which sorts the subplans that are not ordered yet and
+     * then reads each input once. != and LIKE fall back to the block nested
+     * loops {@link Join}.
      * 
      * @param lj
      *            The join being considered
@@ -68,7 +84,16 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (lj.p == Predicate.Op.EQUALS) {
+            if (SortMergeJoin.isSortedInput(p, plan1, plan2))
+                j = new SortMergeJoin(p, plan1, plan2);
+            else
+                j = new HashJoin(p, plan1, plan2);
+        } else if (SortMergeJoin.supports(lj.p)) {
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else {
+            j = new Join(p, plan1, plan2);
+        }
 
         return j;
 
@@ -106,15 +131,43 @@ public class JoinOptimizer {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 4.
             return card1 + cost1 + cost2;
+        } else if (j.p == Predicate.Op.EQUALS) {
+            // hash join: each side is scanned once, and every tuple costs
+            // one hash table insert or probe
+            return cost1 + cost2 + card1 + card2;
+        } else if (SortMergeJoin.supports(j.p)) {
+            // sort-merge join: each side is scanned once and sorted, then
+            // merged with one comparison per tuple
+            return cost1 + cost2 + sortCost(card1) + sortCost(card2)
+                    + card1 + card2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            // block nested loops: the inner side is rescanned once for
+            // every block of outer tuples
+            double blocks = Math.ceil((double) card1 / blockTuples(j));
+            return cost1 + blocks * cost2 + (double) card1 * card2;
         }
     }
 
+    /**
+     * @return the number of comparisons to sort card tuples
+     */
+    private static double sortCost(int card) {
+        return card <= 1 ? 0 : card * (Math.log(card) / Math.log(2));
+    }
+
+    /**
+     * @return the number of outer tuples per block when j is instantiated as
+     *         a block nested loops {@link Join}, assuming the outer tuples
+     *         have the schema of j's left table, or of
+     *         {@link #DEFAULT_OUTER_TD} if it is not a table
+     */
+    private int blockTuples(LogicalJoinNode j) {
+        Integer tableId = p.getTableId(j.t1Alias);
+        TupleDesc td = tableId == null ? DEFAULT_OUTER_TD
+                : Database.getCatalog().getTupleDesc(tableId);
+        return Join.blockTuples(td, Join.DEFAULT_BLOCK_PAGES);
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
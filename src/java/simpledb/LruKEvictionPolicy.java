@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The LRU-K eviction policy: evicts the page whose K-th most recent access
+ * is the oldest. Pages that have been accessed fewer than K times are
+ * evicted first, least recently used first.
+ * <p>
+ * A sequential scan reads each page once, so with K of 2 or more its pages
+ * are evicted before any page that has been used more than once, and a large
+ * scan no longer flushes the pages that queries keep coming back to.
+ */
+public class LruKEvictionPolicy implements EvictionPolicy {
+
+    /** The default K */
+    public static final int DEFAULT_K = 2;
+
+    private final int m_k;
+
+    /**
+     * The access times of each page, most recent first; 0 where the page has
+     * had fewer accesses
+     */
+    private final HashMap<PageId, long[]> m_history = new HashMap<PageId, long[]>();
+
+    /** A logical clock, advanced on every access */
+    private long m_time;
+
+    /**
+     * @param k
+     *            the number of accesses to remember per page; at least 1
+     */
+    public LruKEvictionPolicy(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        m_k = k;
+    }
+
+    public LruKEvictionPolicy() {
+        this(DEFAULT_K);
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (!m_history.containsKey(pid))
+            m_history.put(pid, new long[m_k]);
+        pageAccessed(pid);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        long[] history = m_history.get(pid);
+        if (history == null)
+            return;
+        System.arraycopy(history, 0, history, 1, m_k - 1);
+        history[0] = ++m_time;
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        m_history.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Candidates candidates) {
+        PageId victim = null;
+        long[] victimHistory = null;
+        for (Map.Entry<PageId, long[]> e : m_history.entrySet()) {
+            long[] history = e.getValue();
+            if (victimHistory != null && !evictsBefore(history, victimHistory))
+                continue;
+            if (candidates.canEvict(e.getKey())) {
+                victim = e.getKey();
+                victimHistory = history;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * @return true if a page with history a should be evicted before one with
+     *         history b
+     */
+    private boolean evictsBefore(long[] a, long[] b) {
+        long ka = a[m_k - 1];
+        long kb = b[m_k - 1];
+        if (ka != kb)
+            return ka < kb;
+        return a[0] < b[0];
+    }
+}
@@ -0,0 +1,375 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Knows how to compute several aggregates at once, grouped by zero or more
+ * fields, in a single pass over the tuples.
+ * <p>
+ * Like {@link IntegerAggregator}, groups are numbered by a
+ * {@link GroupTable} and their state is kept in primitive arrays: one running
+ * value per group and aggregate (the MIN, MAX or SUM so far), and one count
+ * of merged tuples per group, which COUNT and AVG share. AVG is only computed
+ * when {@link #iterator} is called.
+ * <p>
+ * The state of every group can also be read out as partial state tuples
+ * with {@link #partialIterator}, and merged into another MultiAggregator
+ * with the same aggregates with {@link #mergePartial}. Operators use this
+ * to combine aggregates that were computed separately, such as the ones
+ * {@link Aggregate} writes to disk when there are too many groups to keep
+ * in memory.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_GROUPS = 16;
+
+    private final int[] m_gbfields;
+
+    private final Type[] m_gbfieldtypes;
+
+    private final int[] m_afields;
+
+    private final Op[] m_whats;
+
+    /** null when there are no group-by fields */
+    private final GroupTable m_groups;
+
+    /** Per group g and aggregate j, at g * m_afields.length + j */
+    private long[] m_values;
+
+    /** Per group: # of tuples merged */
+    private long[] m_counts;
+
+    /** The positions of the group-by fields in partial state tuples */
+    private final int[] m_partialGbfields;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple;
+     *            empty if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group-by fields
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple, one
+     *            per aggregate
+     * @param afieldtypes
+     *            the types of the aggregate fields
+     * @param whats
+     *            the aggregation operators, one per aggregate
+     * @throws IllegalArgumentException
+     *             if an operator is not one of MIN, MAX, SUM, AVG or COUNT,
+     *             or is not COUNT over a string field
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields,
+            Type[] afieldtypes, Op[] whats) {
+        if (afields.length == 0 || afields.length != whats.length
+                || afields.length != afieldtypes.length
+                || gbfields.length != gbfieldtypes.length) {
+            throw new IllegalArgumentException(
+                    "need one field and type per aggregate and group-by field");
+        }
+        for (int j = 0; j < whats.length; j++) {
+            if (whats[j] == Op.SUM_COUNT || whats[j] == Op.SC_AVG) {
+                throw new IllegalArgumentException("Unsupported aggregate "
+                        + whats[j]);
+            }
+            if (afieldtypes[j] == Type.STRING_TYPE && whats[j] != Op.COUNT) {
+                throw new IllegalArgumentException(
+                        "Only COUNT is supported over string fields");
+            }
+        }
+        m_gbfields = gbfields.clone();
+        m_gbfieldtypes = gbfieldtypes.clone();
+        m_afields = afields.clone();
+        m_whats = whats.clone();
+        if (gbfields.length > 0) {
+            m_groups = new GroupTable(gbfieldtypes);
+            m_counts = new long[INITIAL_GROUPS];
+        } else {
+            m_groups = null;
+            m_counts = new long[1];
+        }
+        m_values = new long[m_counts.length * afields.length];
+        m_partialGbfields = new int[gbfields.length];
+        for (int i = 0; i < gbfields.length; i++)
+            m_partialGbfields[i] = i;
+    }
+
+    /**
+     * @return the number of groups seen so far
+     */
+    public int numGroups() {
+        return m_groups == null ? 1 : m_groups.size();
+    }
+
+    /**
+     * @return the index of the group of the values of fields in t, growing
+     *         the state arrays if it is a new group
+     */
+    private int groupOf(Tuple t, int[] fields) {
+        if (m_groups == null)
+            return 0;
+        return grown(m_groups.indexOf(t, fields));
+    }
+
+    /**
+     * @return g, after growing the state arrays if it is a new group that
+     *         does not fit in them
+     */
+    private int grown(int g) {
+        if (g == m_counts.length) {
+            m_counts = Arrays.copyOf(m_counts, g * 2);
+            m_values = Arrays.copyOf(m_values, g * 2 * m_afields.length);
+        }
+        return g;
+    }
+
+    /**
+     * Combines v into the running value i of aggregate j.
+     *
+     * @param first
+     *            true if the group had no tuples before
+     */
+    private void combine(int i, int j, long v, boolean first) {
+        switch (m_whats[j]) {
+        case MIN:
+            if (first || v < m_values[i])
+                m_values[i] = v;
+            break;
+        case MAX:
+            if (first || v > m_values[i])
+                m_values[i] = v;
+            break;
+        case COUNT:
+            // only needs m_counts
+            break;
+        default:
+            // SUM and AVG
+            m_values[i] += v;
+            break;
+        }
+    }
+
+    /**
+     * Merge a new tuple into the aggregates for its group, creating the group
+     * if it has not yet been seen.
+     *
+     * @param tup
+     *            the Tuple containing the aggregate and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        int g = groupOf(tup, m_gbfields);
+        boolean first = m_counts[g]++ == 0;
+        int base = g * m_afields.length;
+        for (int j = 0; j < m_afields.length; j++) {
+            if (m_whats[j] != Op.COUNT)
+                combine(base + j, j,
+                        ((IntField) tup.getField(m_afields[j])).getValue(), first);
+        }
+    }
+
+    /**
+     * Merge the selected rows of a batch into the aggregates for their
+     * groups. Values and single group-by keys are read straight from the
+     * batch's vectors; with several group-by fields each row is made into a
+     * Tuple to find its group.
+     *
+     * @param batch
+     *            rows containing the aggregate and group-by fields
+     */
+    public void mergeBatch(TupleBatch batch) {
+        int n = batch.size();
+        int[] sel = batch.selection();
+        int[][] values = new int[m_afields.length][];
+        for (int j = 0; j < m_afields.length; j++) {
+            if (m_whats[j] != Op.COUNT)
+                values[j] = ((IntVector) batch.column(m_afields[j])).values;
+        }
+        int[] intKeys = null;
+        StringVector stringKeys = null;
+        if (m_gbfields.length == 1) {
+            ColumnVector keys = batch.column(m_gbfields[0]);
+            if (keys instanceof IntVector)
+                intKeys = ((IntVector) keys).values;
+            else
+                stringKeys = (StringVector) keys;
+        }
+        for (int k = 0; k < n; k++) {
+            int r = sel[k];
+            int g;
+            if (intKeys != null)
+                g = grown(m_groups.indexOf(intKeys[r]));
+            else if (stringKeys != null)
+                g = grown(m_groups.indexOf(stringKeys, r));
+            else if (m_groups != null)
+                g = groupOf(batch.getTuple(k), m_gbfields);
+            else
+                g = 0;
+            boolean first = m_counts[g]++ == 0;
+            int base = g * m_afields.length;
+            for (int j = 0; j < m_afields.length; j++) {
+                if (values[j] != null)
+                    combine(base + j, j, values[j][r], first);
+            }
+        }
+    }
+
+    /**
+     * Merge a partial state tuple, as returned by the {@link #partialIterator}
+     * of a MultiAggregator with the same aggregates, into the aggregates for
+     * its group.
+     *
+     * @param partial
+     *            a tuple of type {@link #getPartialTupleDesc}
+     */
+    public void mergePartial(Tuple partial) {
+        int pos = m_gbfields.length;
+        long count = getLong(partial, pos + 2 * m_afields.length);
+        if (count == 0)
+            return; // no tuples without grouping; its values are not set
+        int g = groupOf(partial, m_partialGbfields);
+        boolean first = m_counts[g] == 0;
+        m_counts[g] += count;
+        int base = g * m_afields.length;
+        for (int j = 0; j < m_afields.length; j++) {
+            combine(base + j, j, getLong(partial, pos + 2 * j), first);
+        }
+    }
+
+    /**
+     * @return the type of the partial state tuples returned by
+     *         {@link #partialIterator}: the group-by fields, then the running
+     *         value of each aggregate, then the group's count. Each running
+     *         value and count is a long, stored as two int fields holding its
+     *         high and low 32 bits.
+     */
+    public TupleDesc getPartialTupleDesc() {
+        Type[] types = new Type[m_gbfields.length + 2 * (m_afields.length + 1)];
+        for (int i = 0; i < types.length; i++)
+            types[i] = i < m_gbfields.length ? m_gbfieldtypes[i] : Type.INT_TYPE;
+        return new TupleDesc(types);
+    }
+
+    private static long getLong(Tuple t, int pos) {
+        long hi = ((IntField) t.getField(pos)).getValue();
+        long lo = ((IntField) t.getField(pos + 1)).getValue();
+        return (hi << 32) | (lo & 0xffffffffL);
+    }
+
+    private static void setLong(Tuple t, int pos, long v) {
+        t.setField(pos, new IntField((int) (v >>> 32)));
+        t.setField(pos + 1, new IntField((int) v));
+    }
+
+    /**
+     * Returns the state of each group as a partial state tuple. Tuples are
+     * created as they are read, so the state is not copied.
+     *
+     * @return a DbIterator over tuples of type {@link #getPartialTupleDesc}
+     */
+    public DbIterator partialIterator() {
+        return new PartialIterator();
+    }
+
+    /**
+     * @return the type of the tuples returned by {@link #iterator}: the
+     *         group-by fields, followed by one int field per aggregate
+     */
+    public TupleDesc getTupleDesc() {
+        Type[] types = new Type[m_gbfields.length + m_afields.length];
+        for (int i = 0; i < m_gbfields.length; i++)
+            types[i] = m_gbfieldtypes[i];
+        for (int j = 0; j < m_afields.length; j++)
+            types[m_gbfields.length + j] = Type.INT_TYPE;
+        return new TupleDesc(types);
+    }
+
+    private int aggregateValue(int g, int j) {
+        switch (m_whats[j]) {
+        case COUNT:
+            return (int) m_counts[g];
+        case AVG:
+            return m_counts[g] == 0 ? 0
+                    : (int) (m_values[g * m_afields.length + j] / m_counts[g]);
+        default:
+            return (int) m_values[g * m_afields.length + j];
+        }
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples hold the group-by values followed by
+     *         the aggregate values, in the order given to the constructor. If
+     *         there is no grouping it returns a single tuple.
+     */
+    public DbIterator iterator() {
+        TupleDesc td = getTupleDesc();
+        int numGroupFields = m_gbfields.length;
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int g = 0; g < numGroups(); g++) {
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < numGroupFields; i++)
+                t.setField(i, m_groups.key(g, i));
+            for (int j = 0; j < m_afields.length; j++)
+                t.setField(numGroupFields + j, new IntField(aggregateValue(g, j)));
+            tuples.add(t);
+        }
+        return new TupleIterator(td, tuples);
+    }
+
+    /**
+     * Builds the partial state tuple of each group when it is read.
+     */
+    private class PartialIterator implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TupleDesc m_td = getPartialTupleDesc();
+
+        private int m_next = -1;
+
+        public void open() {
+            m_next = 0;
+        }
+
+        public boolean hasNext() {
+            if (m_next < 0)
+                throw new IllegalStateException("Iterator not yet open");
+            return m_next < numGroups();
+        }
+
+        public Tuple next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            int g = m_next++;
+            int numGroupFields = m_gbfields.length;
+            Tuple t = new Tuple(m_td);
+            for (int i = 0; i < numGroupFields; i++)
+                t.setField(i, m_groups.key(g, i));
+            for (int j = 0; j < m_afields.length; j++)
+                setLong(t, numGroupFields + 2 * j, m_values[g * m_afields.length + j]);
+            setLong(t, numGroupFields + 2 * m_afields.length, m_counts[g]);
+            return t;
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return m_td;
+        }
+
+        public void close() {
+            m_next = -1;
+        }
+    }
+
+}
@@ -6,8 +6,12 @@ import java.util.NoSuchElementException;
  * Abstract class for implementing operators. It handles <code>close</code>,
  * <code>next</code> and <code>hasNext</code>. Subclasses only need to implement
  * <code>open</code> and <code>readNext</code>.
+ * <p>
+ * Operators can also be read in batches. By default <code>nextBatch</code>
+ * collects the tuples of <code>fetchNext</code>; operators that can do their
+ * work on whole batches override it, and <code>producesBatches</code>.
  */
-public abstract class Operator implements DbIterator {
+public abstract class Operator implements DbIterator, BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -33,6 +37,28 @@ public abstract class Operator implements DbIterator {
         return result;
     }
 
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc());
+        batch.clear();
+        while (!batch.isFull() && hasNext())
+            batch.add(next());
+        return batch.size() == 0 ? null : batch;
+    }
+
+    /**
+     * @return true if nextBatch does its work on batches rather than
+     *         collecting the tuples of fetchNext, so that callers should
+     *         prefer it to next
+     * @see BatchingIterator#isBatched
+     */
+    protected boolean producesBatches() {
+        return false;
+    }
+
     /**
      * Returns the next Tuple in the iterator, or null if the iteration is
      * finished. Operator uses this method to implement both <code>next</code>
@@ -51,10 +77,12 @@ public abstract class Operator implements DbIterator {
     public void close() {
         // Ensures that a future call to next() will fail
         next = null;
+        batch = null;
         this.open = false;
     }
 
     private Tuple next = null;
+    private transient TupleBatch batch = null;
     private boolean open = false;
     private int estimatedCardinality = 0;
 
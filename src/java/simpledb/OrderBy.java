@@ -1,20 +1,39 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * OrderBy sorts its child with an external merge sort whose memory use is
+ * bounded by a budget of pages. If the child fits in the budget it is sorted
+ * in memory. Otherwise each budget's worth of tuples is sorted and written to
+ * a {@link SpillFile} run, runs are merged memPages - 1 at a time until few
+ * enough remain, and the last merge is streamed to the parent.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Default memory budget, in pages, for sorting.
+     */
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES;
+
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
+    private int[] orderByFields;
     private String orderByFieldName;
     private Iterator<Tuple> it;
-    private boolean asc;
+    private boolean[] asc;
+    private TupleComparator cmp;
+    private int memPages;
+    /** Sorted runs on disk; empty if the child was sorted in memory */
+    private ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+    /** Streams the final merge of runs */
+    private RunMerger merger;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,50 +46,203 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator that holds
+     * at most memPages pages of tuples in memory.
+     * 
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memPages
+     *            the memory budget, in pages; at least 1
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int memPages) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child, memPages);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts the tuples from the iterator on
+     * several fields. Tuples are ordered by the first field, ties are ordered
+     * by the second field, and so on.
+     * 
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if its sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memPages
+     *            the memory budget, in pages; at least 1
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child,
+            int memPages) {
+        if (memPages < 1)
+            throw new IllegalArgumentException("memPages must be at least 1");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.cmp = new TupleComparator(td, orderbyFields, asc);
+        this.orderByFields = orderbyFields.clone();
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.asc = asc.clone();
+        this.memPages = memPages;
     }
     
+    /**
+     * @return true if the sort order of the first ORDER BY field is ascending
+     */
     public boolean isASC()
     {
-	return this.asc;
+	return this.asc[0];
     }
     
+    /**
+     * @return the first (most significant) ORDER BY field
+     */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
     
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
     }
+
+    /**
+     * @return all ORDER BY fields, most significant first
+     */
+    public int[] getOrderByFields() {
+        return this.orderByFields.clone();
+    }
+
+    /**
+     * @return for each ORDER BY field, true if its sort order is ascending
+     */
+    public boolean[] getAscending() {
+        return this.asc.clone();
+    }
     
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /**
+     * @return true if the last open() had to write sorted runs to disk
+     */
+    public boolean hasSpilled() {
+        return !runs.isEmpty();
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        discard();
+        int budget = memPages * HeapPage.getNumTuples(td);
+        while (child.hasNext()) {
+            childTups.add(child.next());
+            if (childTups.size() >= budget && child.hasNext())
+                writeRun();
+        }
+        if (runs.isEmpty()) {
+            Collections.sort(childTups, cmp);
+            it = childTups.iterator();
+        } else {
+            if (!childTups.isEmpty())
+                writeRun();
+            int fanIn = Math.max(2, memPages - 1);
+            while (runs.size() > fanIn)
+                mergePass(fanIn);
+            merger = new RunMerger(runs, cmp);
+        }
         super.open();
     }
 
+    /**
+     * Sorts the buffered tuples and writes them out as a new run.
+     */
+    private void writeRun() throws DbException {
+        Collections.sort(childTups, cmp);
+        SpillFile run = null;
+        try {
+            run = new SpillFile(td);
+            for (Tuple t : childTups)
+                run.add(t);
+        } catch (IOException e) {
+            if (run != null)
+                run.delete();
+            throw new DbException("OrderBy cannot write sorted run: " + e);
+        }
+        runs.add(run);
+        childTups.clear();
+    }
+
+    /**
+     * Merges each group of fanIn runs into a single run.
+     */
+    private void mergePass(int fanIn)
+            throws DbException, TransactionAbortedException {
+        ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+        for (int i = 0; i < runs.size(); i += fanIn) {
+            List<SpillFile> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+            if (group.size() == 1) {
+                merged.add(group.get(0));
+                continue;
+            }
+            SpillFile out = null;
+            try {
+                out = new SpillFile(td);
+                RunMerger m = new RunMerger(group, cmp);
+                Tuple t;
+                while ((t = m.next()) != null)
+                    out.add(t);
+                m.close();
+            } catch (IOException e) {
+                if (out != null)
+                    out.delete();
+                throw new DbException("OrderBy cannot write sorted run: " + e);
+            }
+            for (SpillFile run : group)
+                run.delete();
+            merged.add(out);
+        }
+        runs = merged;
+    }
+
+    /**
+     * Drops the sorted tuples, in memory and on disk.
+     */
+    private void discard() {
+        it = null;
+        childTups.clear();
+        if (merger != null) {
+            merger.close();
+            merger = null;
+        }
+        for (SpillFile run : runs)
+            run.delete();
+        runs.clear();
+    }
+
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        discard();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (runs.isEmpty()) {
+            it = childTups.iterator();
+        } else {
+            merger.close();
+            merger = new RunMerger(runs, cmp);
+        }
     }
 
     /**
@@ -82,6 +254,8 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (merger != null)
+            return merger.next();
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -98,26 +272,66 @@ public class OrderBy extends Operator {
         this.child = children[0];
     }
 
-}
+    /**
+     * Merges a set of sorted runs, keeping only the current page and head
+     * tuple of each run in memory.
+     */
+    private static class RunMerger {
 
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
+        private final DbIterator[] runIts;
+        private final PriorityQueue<Integer> heap;
+        private final Tuple[] heads;
 
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
+        RunMerger(List<SpillFile> runs, final Comparator<Tuple> cmp)
+                throws DbException, TransactionAbortedException {
+            runIts = new DbIterator[runs.size()];
+            heads = new Tuple[runs.size()];
+            heap = new PriorityQueue<Integer>(runs.size(), new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return cmp.compare(heads[a], heads[b]);
+                }
+            });
+            for (int i = 0; i < runIts.length; i++) {
+                try {
+                    runIts[i] = runs.get(i).iterator();
+                } catch (IOException e) {
+                    throw new DbException("OrderBy cannot read sorted run: " + e);
+                }
+                runIts[i].open();
+                advance(i);
+            }
+        }
+
+        private void advance(int i) throws DbException,
+                TransactionAbortedException {
+            if (runIts[i].hasNext()) {
+                heads[i] = runIts[i].next();
+                heap.add(i);
+            } else {
+                heads[i] = null;
+            }
+        }
 
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+        /**
+         * @return the smallest remaining tuple, or null if all runs are
+         *         exhausted
+         */
+        Tuple next() throws DbException, TransactionAbortedException {
+            Integer i = heap.poll();
+            if (i == null)
+                return null;
+            Tuple t = heads[i];
+            advance(i);
+            return t;
+        }
+
+        void close() {
+            for (DbIterator runIt : runIts) {
+                if (runIt != null)
+                    runIt.close();
+            }
+            heap.clear();
+        }
     }
-    
+
 }
@@ -15,6 +15,9 @@ public class Predicate implements Serializable {
     
     private Field m_operand;
 
+    /** Made by compile() */
+    private transient PredicateEvaluator m_evaluator;
+
     /** Constants used for return codes in Field.compare */
     public enum Op implements Serializable {
         EQUALS, GREATER_THAN, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN_OR_EQ, LIKE, NOT_EQUALS;
@@ -90,19 +93,46 @@ public class Predicate implements Serializable {
     	return m_operand;
     }
     
+    /**
+     * @return the evaluator of this predicate, compiled on first use
+     * @see PredicateEvaluator#compile(Predicate)
+     */
+    PredicateEvaluator compile() {
+    	if (m_evaluator == null)
+    		m_evaluator = PredicateEvaluator.compile(this);
+    	return m_evaluator;
+    }
+    
     /**
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific in
-     * the constructor. The comparison can be made through Field's compare
-     * method.
+     * the constructor. The comparison is made by an evaluator compiled for the
+     * operand's type and the operator, with the same results as Field's
+     * compare method.
      * 
      * @param t
      *            The tuple to compare against
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {
-    	Field cur_field = t.getField(m_field);
-    	return cur_field.compare(m_op, m_operand);
+    	return compile().matches(t);
+    }
+
+    /**
+     * Applies the predicate to each selected row of a batch, in a loop over
+     * the field's vector specialized for the operator.
+     * 
+     * @param batch
+     *            The rows to compare against
+     * @param selected
+     *            Set to the indexes in the batch's vectors of the rows for
+     *            which the comparison is true, in order; must have room for
+     *            batch.size() rows
+     * @return the number of rows for which the comparison is true
+     * @see TupleBatch#select
+     */
+    public int filter(TupleBatch batch, int[] selected) {
+    	return compile().filter(batch, selected);
     }
 
     /**
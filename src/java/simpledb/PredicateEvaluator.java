@@ -0,0 +1,380 @@
+package simpledb;
+
+/**
+ * A {@link Predicate}, or a conjunction of predicates, compiled into code for
+ * its type of field and operator. Each evaluator of a single predicate is a
+ * final class that holds the operand as a primitive value and does its
+ * comparison inline, so its loop over a batch does not switch on the
+ * operator or call through Field for each row.
+ * <p>
+ * A conjunction calls its terms through this class, so those calls are not
+ * specialized. On a batch that is one call per term per batch, and each
+ * term's loop over the rows is still its own; a tuple at a time it is one
+ * call per term per tuple.
+ * <p>
+ * Evaluators are made by {@link #compile(Predicate)} and
+ * {@link #compile(Predicate[])}; Predicate and Filter make them once and
+ * keep them.
+ */
+abstract class PredicateEvaluator {
+
+    /**
+     * @return true if t satisfies the predicate
+     */
+    abstract boolean matches(Tuple t);
+
+    /**
+     * Applies the predicate to some rows of a batch.
+     *
+     * @param batch
+     *            the rows to compare against
+     * @param rows
+     *            the indexes in the batch's vectors of the rows to compare,
+     *            in increasing order
+     * @param n
+     *            the number of rows to compare
+     * @param out
+     *            set to the indexes of the rows for which the predicate is
+     *            true, in order; may be rows itself
+     * @return the number of rows for which the predicate is true
+     */
+    abstract int filter(TupleBatch batch, int[] rows, int n, int[] out);
+
+    /**
+     * Applies the predicate to each selected row of a batch.
+     *
+     * @see Predicate#filter(TupleBatch, int[])
+     */
+    final int filter(TupleBatch batch, int[] selected) {
+        return filter(batch, batch.selection(), batch.size(), selected);
+    }
+
+    /**
+     * @return an evaluator of p for its type of operand and its operator
+     */
+    static PredicateEvaluator compile(Predicate p) {
+        int field = p.getField();
+        Field operand = p.getOperand();
+        if (operand.getType() == Type.INT_TYPE) {
+            int v = ((IntField) operand).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                return new IntEquals(field, v);
+            case NOT_EQUALS:
+                return new IntNotEquals(field, v);
+            case GREATER_THAN:
+                return new IntGreaterThan(field, v);
+            case GREATER_THAN_OR_EQ:
+                return new IntGreaterThanOrEq(field, v);
+            case LESS_THAN:
+                return new IntLessThan(field, v);
+            default:
+                return new IntLessThanOrEq(field, v);
+            }
+        }
+        String v = ((StringField) operand).getValue();
+        switch (p.getOp()) {
+        case LIKE:
+            return new StringLike(field, v);
+        case EQUALS:
+            return new StringCompare(field, v, StringCompare.EQ);
+        case NOT_EQUALS:
+            return new StringCompare(field, v, StringCompare.LT | StringCompare.GT);
+        case GREATER_THAN:
+            return new StringCompare(field, v, StringCompare.GT);
+        case GREATER_THAN_OR_EQ:
+            return new StringCompare(field, v, StringCompare.GT | StringCompare.EQ);
+        case LESS_THAN:
+            return new StringCompare(field, v, StringCompare.LT);
+        default:
+            return new StringCompare(field, v, StringCompare.LT | StringCompare.EQ);
+        }
+    }
+
+    /**
+     * @return an evaluator that is true when all of ps are, trying them in
+     *         order
+     * @throws IllegalArgumentException
+     *             if ps is empty
+     */
+    static PredicateEvaluator compile(Predicate[] ps) {
+        if (ps.length == 0)
+            throw new IllegalArgumentException("no predicates");
+        if (ps.length == 1)
+            return ps[0].compile();
+        PredicateEvaluator[] terms = new PredicateEvaluator[ps.length];
+        for (int i = 0; i < ps.length; i++)
+            terms[i] = ps[i].compile();
+        return new And(terms);
+    }
+
+    private static int intValue(Tuple t, int field) {
+        return ((IntField) t.getField(field)).getValue();
+    }
+
+    private static int[] intValues(TupleBatch batch, int field) {
+        return ((IntVector) batch.column(field)).values;
+    }
+
+    static final class IntEquals extends PredicateEvaluator {
+        private final int m_field;
+        private final int m_value;
+
+        IntEquals(int field, int value) {
+            m_field = field;
+            m_value = value;
+        }
+
+        boolean matches(Tuple t) {
+            return intValue(t, m_field) == m_value;
+        }
+
+        int filter(TupleBatch batch, int[] rows, int n, int[] out) {
+            int[] col = intValues(batch, m_field);
+            int v = m_value;
+            int count = 0;
+            for (int k = 0; k < n; k++) {
+                int r = rows[k];
+                if (col[r] == v)
+                    out[count++] = r;
+            }
+            return count;
+        }
+    }
+
+    static final class IntNotEquals extends PredicateEvaluator {
+        private final int m_field;
+        private final int m_value;
+
+        IntNotEquals(int field, int value) {
+            m_field = field;
+            m_value = value;
+        }
+
+        boolean matches(Tuple t) {
+            return intValue(t, m_field) != m_value;
+        }
+
+        int filter(TupleBatch batch, int[] rows, int n, int[] out) {
+            int[] col = intValues(batch, m_field);
+            int v = m_value;
+            int count = 0;
+            for (int k = 0; k < n; k++) {
+                int r = rows[k];
+                if (col[r] != v)
+                    out[count++] = r;
+            }
+            return count;
+        }
+    }
+
+    static final class IntGreaterThan extends PredicateEvaluator {
+        private final int m_field;
+        private final int m_value;
+
+        IntGreaterThan(int field, int value) {
+            m_field = field;
+            m_value = value;
+        }
+
+        boolean matches(Tuple t) {
+            return intValue(t, m_field) > m_value;
+        }
+
+        int filter(TupleBatch batch, int[] rows, int n, int[] out) {
+            int[] col = intValues(batch, m_field);
+            int v = m_value;
+            int count = 0;
+            for (int k = 0; k < n; k++) {
+                int r = rows[k];
+                if (col[r] > v)
+                    out[count++] = r;
+            }
+            return count;
+        }
+    }
+
+    static final class IntGreaterThanOrEq extends PredicateEvaluator {
+        private final int m_field;
+        private final int m_value;
+
+        IntGreaterThanOrEq(int field, int value) {
+            m_field = field;
+            m_value = value;
+        }
+
+        boolean matches(Tuple t) {
+            return intValue(t, m_field) >= m_value;
+        }
+
+        int filter(TupleBatch batch, int[] rows, int n, int[] out) {
+            int[] col = intValues(batch, m_field);
+            int v = m_value;
+            int count = 0;
+            for (int k = 0; k < n; k++) {
+                int r = rows[k];
+                if (col[r] >= v)
+                    out[count++] = r;
+            }
+            return count;
+        }
+    }
+
+    static final class IntLessThan extends PredicateEvaluator {
+        private final int m_field;
+        private final int m_value;
+
+        IntLessThan(int field, int value) {
+            m_field = field;
+            m_value = value;
+        }
+
+        boolean matches(Tuple t) {
+            return intValue(t, m_field) < m_value;
+        }
+
+        int filter(TupleBatch batch, int[] rows, int n, int[] out) {
+            int[] col = intValues(batch, m_field);
+            int v = m_value;
+            int count = 0;
+            for (int k = 0; k < n; k++) {
+                int r = rows[k];
+                if (col[r] < v)
+                    out[count++] = r;
+            }
+            return count;
+        }
+    }
+
+    static final class IntLessThanOrEq extends PredicateEvaluator {
+        private final int m_field;
+        private final int m_value;
+
+        IntLessThanOrEq(int field, int value) {
+            m_field = field;
+            m_value = value;
+        }
+
+        boolean matches(Tuple t) {
+            return intValue(t, m_field) <= m_value;
+        }
+
+        int filter(TupleBatch batch, int[] rows, int n, int[] out) {
+            int[] col = intValues(batch, m_field);
+            int v = m_value;
+            int count = 0;
+            for (int k = 0; k < n; k++) {
+                int r = rows[k];
+                if (col[r] <= v)
+                    out[count++] = r;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Compares a string field to the operand. The operator is a mask of the
+     * outcomes it accepts, LT, EQ and GT, so every operator but LIKE shares
+     * one loop with no branch on the operator.
+     */
+    static final class StringCompare extends PredicateEvaluator {
+        static final int LT = 1;
+        static final int EQ = 2;
+        static final int GT = 4;
+
+        private final int m_field;
+        private final String m_value;
+        private final byte[] m_bytes;
+        private final int m_accept;
+
+        StringCompare(int field, String value, int accept) {
+            m_field = field;
+            m_value = value;
+            m_bytes = value.getBytes();
+            m_accept = accept;
+        }
+
+        /**
+         * @return the bit of the outcome of a comparison
+         */
+        private static int outcome(int cmp) {
+            return 1 << (Integer.signum(cmp) + 1);
+        }
+
+        boolean matches(Tuple t) {
+            String s = ((StringField) t.getField(m_field)).getValue();
+            return (outcome(s.compareTo(m_value)) & m_accept) != 0;
+        }
+
+        int filter(TupleBatch batch, int[] rows, int n, int[] out) {
+            StringVector col = (StringVector) batch.column(m_field);
+            byte[] v = m_bytes;
+            int accept = m_accept;
+            int count = 0;
+            for (int k = 0; k < n; k++) {
+                int r = rows[k];
+                if ((outcome(col.compare(r, v)) & accept) != 0)
+                    out[count++] = r;
+            }
+            return count;
+        }
+    }
+
+    static final class StringLike extends PredicateEvaluator {
+        private final int m_field;
+        private final String m_value;
+        private final byte[] m_bytes;
+
+        StringLike(int field, String value) {
+            m_field = field;
+            m_value = value;
+            m_bytes = value.getBytes();
+        }
+
+        boolean matches(Tuple t) {
+            String s = ((StringField) t.getField(m_field)).getValue();
+            return s.indexOf(m_value) >= 0;
+        }
+
+        int filter(TupleBatch batch, int[] rows, int n, int[] out) {
+            StringVector col = (StringVector) batch.column(m_field);
+            byte[] v = m_bytes;
+            int count = 0;
+            for (int k = 0; k < n; k++) {
+                int r = rows[k];
+                if (col.contains(r, v))
+                    out[count++] = r;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * A conjunction. On a batch each term only looks at the rows that passed
+     * the terms before it. The terms are called through PredicateEvaluator,
+     * which the JIT cannot inline once plans use several kinds of terms.
+     */
+    static final class And extends PredicateEvaluator {
+        private final PredicateEvaluator[] m_terms;
+
+        And(PredicateEvaluator[] terms) {
+            m_terms = terms;
+        }
+
+        boolean matches(Tuple t) {
+            for (PredicateEvaluator term : m_terms) {
+                if (!term.matches(t))
+                    return false;
+            }
+            return true;
+        }
+
+        int filter(TupleBatch batch, int[] rows, int n, int[] out) {
+            n = m_terms[0].filter(batch, rows, n, out);
+            for (int i = 1; i < m_terms.length && n > 0; i++)
+                n = m_terms[i].filter(batch, out, n, out);
+            return n;
+        }
+    }
+}
@@ -11,6 +11,10 @@ public class Project extends Operator {
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    /** outFieldIds, as an array */
+    private int[] outFields;
+    /** child, read in batches */
+    private transient BatchIterator childBatches;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -32,6 +36,9 @@ public class Project extends Operator {
             DbIterator child) {
         this.child = child;
         outFieldIds = fieldList;
+        outFields = new int[fieldList.size()];
+        for (int i = 0; i < outFields.length; i++)
+            outFields[i] = fieldList.get(i);
         String[] fieldAr = new String[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
 
@@ -80,6 +87,27 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next batch of the child with only the projected fields.
+     * The batch shares its arrays with the child's, so nothing is copied.
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (childBatches == null)
+            childBatches = BatchingIterator.of(child);
+        TupleBatch batch = childBatches.nextBatch();
+        return batch == null ? null : batch.project(outFields, td);
+    }
+
+    /**
+     * @return true if the child produces batches
+     */
+    @Override
+    protected boolean producesBatches() {
+        return BatchingIterator.isBatched(child);
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -90,6 +118,7 @@ public class Project extends Operator {
 	if (this.child!=children[0])
 	{
 	    this.child = children[0];
+	    childBatches = null;
 	}
     }
     
@@ -17,6 +17,8 @@ public class Query implements Serializable {
     private static final long serialVersionUID = 1L;
 
     transient private DbIterator op;
+    /** op, read a tuple at a time from its batches if it can return them */
+    transient private DbIterator rows;
     transient private LogicalPlan logicalPlan;
     TransactionId tid;
     transient private boolean started = false;
@@ -52,18 +54,26 @@ public class Query implements Serializable {
 
     public void start() throws IOException, DbException,
             TransactionAbortedException {
-        op.open();
+        // plans that only make batches from tuples are read as tuples
+        rows = BatchingIterator.isBatched(op)
+                ? new UnbatchingIterator((BatchIterator) op) : op;
+        rows.open();
 
         started = true;
     }
 
+    /** @return what the tuples of the plan are read from */
+    private DbIterator rows() {
+        return rows != null ? rows : op;
+    }
+
     public TupleDesc getOutputTupleDesc() {
         return this.op.getTupleDesc();
     }
 
     /** @return true if there are more tuples remaining. */
     public boolean hasNext() throws DbException, TransactionAbortedException {
-        return op.hasNext();
+        return rows().hasNext();
     }
 
     /**
@@ -83,12 +93,13 @@ public class Query implements Serializable {
         if (!started)
             throw new DbException("Database not started.");
 
-        return op.next();
+        return rows().next();
     }
 
     /** Close the iterator */
     public void close() throws IOException {
-        op.close();
+        rows().close();
+        rows = null;
         started = false;
     }
 
@@ -7,7 +7,7 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements DbIterator, BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -32,6 +32,8 @@ public class SeqScan implements DbIterator {
     private String m_tableAlias;
     private DbFile m_dbfile;
     private DbFileIterator m_it;
+
+    private transient TupleBatch m_batch;
    
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
@@ -52,6 +54,20 @@ public class SeqScan implements DbIterator {
         return Database.getCatalog().getTableName(m_tableid);
     }
     
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return m_tableid;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return m_tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans. 
      * */
@@ -137,10 +153,27 @@ public class SeqScan implements DbIterator {
         
     }
 
+    /**
+     * Returns the next tuples of the scan as a batch. Tuples of a HeapFile
+     * are decoded into the batch straight from their pages.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (m_batch == null)
+            m_batch = new TupleBatch(getTupleDesc());
+        m_batch.clear();
+        if (m_it instanceof HeapFile.HeapFileIterator) {
+            ((HeapFile.HeapFileIterator) m_it).fillBatch(m_batch);
+        } else {
+            while (!m_batch.isFull() && m_it.hasNext())
+                m_batch.add(m_it.next());
+        }
+        return m_batch.size() == 0 ? null : m_batch;
+    }
+
     public void close() {
         // some code goes here
         m_it.close();
-        
+        m_batch = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
@@ -43,8 +43,10 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            HeapFileLoader loader = new HeapFileLoader(ts, fieldSeparator);
+            HeapFileLoader.Stats stats = loader.load(sourceTxtFile, targetDatFile);
+            System.out.println("Wrote " + stats.numTuples() + " tuples in "
+                        + stats.numPages() + " pages to " + targetDatFile);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
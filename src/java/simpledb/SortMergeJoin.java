@@ -0,0 +1,310 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator joins two inputs that are ordered on their join
+ * fields. Children that are not already ordered are sorted with an
+ * {@link OrderBy}; children that are (see {@link #isSortedOn}) are used as
+ * they are.
+ * <p>
+ * Equality joins merge both inputs in ascending order, buffering only the run
+ * of right tuples that share the current key, so duplicate keys on either
+ * side are handled without rescanning. Range joins merge both inputs in the
+ * same order, ascending for &gt; and &gt;=, descending for &lt; and &lt;=:
+ * the right tuples that match a left tuple are then a prefix of the right
+ * input, and that prefix only grows from one left tuple to the next. The
+ * prefix is buffered, and extended as each left tuple is read, so each input
+ * is read once. The output of a merge join is in the order of its left
+ * input.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator m_child1;
+
+    private DbIterator m_child2;
+
+    private JoinPredicate m_p;
+
+    private TupleDesc m_td;
+
+    /** The ordered inputs: a child itself, or an OrderBy over it */
+    private DbIterator m_left;
+
+    private DbIterator m_right;
+
+    private Tuple m_leftTuple;
+
+    /**
+     * The right tuples that match m_leftTuple: for equality joins those whose
+     * key equals m_runKey, for range joins the prefix of the right input
+     */
+    private ArrayList<Tuple> m_run = new ArrayList<Tuple>();
+
+    private Field m_runKey;
+
+    private int m_runPos;
+
+    /** The first right tuple after the current run */
+    private Tuple m_nextRight;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on.
+     *
+     * @param p
+     *            The predicate to use to join the children; any operator but
+     *            Predicate.Op.NOT_EQUALS and Predicate.Op.LIKE
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     * @throws IllegalArgumentException
+     *             if the predicate cannot be evaluated by merging
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("SortMergeJoin does not support "
+                    + p.getOperator());
+        }
+        m_p = p;
+        setChildren(new DbIterator[] { child1, child2 });
+    }
+
+    /**
+     * @return true if a join with operator op can be computed by merging
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * @return the order both inputs must be in for operator op
+     */
+    private static boolean ascending(Predicate.Op op) {
+        return op != Predicate.Op.LESS_THAN && op != Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    /**
+     * Returns true if the tuples of it are known to be ordered on field. An
+     * iterator is ordered if it is an OrderBy on that field, a Filter over an
+     * ordered iterator, or a SortMergeJoin: its output is in the order of its
+     * left input, so on the left join field, and for equality joins also on
+     * the right join field.
+     *
+     * @param it
+     *            the iterator to check
+     * @param field
+     *            the index of the field in it's tuples
+     * @param asc
+     *            true to check for ascending order, false for descending
+     */
+    public static boolean isSortedOn(DbIterator it, int field, boolean asc) {
+        if (it instanceof OrderBy) {
+            OrderBy ob = (OrderBy) it;
+            return ob.getOrderByField() == field && ob.isASC() == asc;
+        }
+        if (it instanceof Filter) {
+            return isSortedOn(((Filter) it).getChildren()[0], field, asc);
+        }
+        if (it instanceof SortMergeJoin) {
+            SortMergeJoin smj = (SortMergeJoin) it;
+            JoinPredicate jp = smj.getJoinPredicate();
+            if (asc != ascending(jp.getOperator()))
+                return false;
+            int numLeft = smj.getChildren()[0].getTupleDesc().numFields();
+            return field == jp.getField1() || (jp.getOperator() == Predicate.Op.EQUALS
+                    && field == numLeft + jp.getField2());
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if children already have the order a SortMergeJoin with
+     * predicate p needs, so that merging them requires no sort.
+     */
+    public static boolean isSortedInput(JoinPredicate p, DbIterator child1,
+            DbIterator child2) {
+        Predicate.Op op = p.getOperator();
+        if (!supports(op))
+            return false;
+        boolean asc = ascending(op);
+        return isSortedOn(child1, p.getField1(), asc)
+                && isSortedOn(child2, p.getField2(), asc);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return m_p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return m_child1.getTupleDesc().getFieldName(m_p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return m_child2.getTupleDesc().getFieldName(m_p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        m_left.open();
+        m_right.open();
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        m_left.close();
+        m_right.close();
+        m_run.clear();
+        m_leftTuple = null;
+        m_nextRight = null;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_left.rewind();
+        m_right.rewind();
+        reset();
+    }
+
+    private void reset() throws DbException, TransactionAbortedException {
+        m_leftTuple = null;
+        m_run.clear();
+        m_runKey = null;
+        m_runPos = 0;
+        m_nextRight = m_right.hasNext() ? m_right.next() : null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. As with {@link Join}, the returned tuples are the
+     * concatenation of the matching left and right tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (m_p.getOperator() == Predicate.Op.EQUALS) {
+            return fetchNextEquals();
+        }
+        return fetchNextRange();
+    }
+
+    private Tuple fetchNextEquals() throws TransactionAbortedException,
+            DbException {
+        int f1 = m_p.getField1();
+        int f2 = m_p.getField2();
+        while (true) {
+            if (m_leftTuple != null && m_runPos < m_run.size()) {
+                return mergeTuples(m_leftTuple, m_run.get(m_runPos++));
+            }
+            if (!m_left.hasNext()) {
+                m_leftTuple = null;
+                return null;
+            }
+            m_leftTuple = m_left.next();
+            Field key = m_leftTuple.getField(f1);
+            m_runPos = 0;
+            if (m_runKey != null && key.equals(m_runKey)) {
+                // duplicate left key: join it with the same run again
+                continue;
+            }
+            m_run.clear();
+            m_runKey = null;
+            while (m_nextRight != null
+                    && m_nextRight.getField(f2).compare(Predicate.Op.LESS_THAN, key)) {
+                m_nextRight = m_right.hasNext() ? m_right.next() : null;
+            }
+            if (m_nextRight == null) {
+                // every remaining left key is larger than every right key
+                m_leftTuple = null;
+                return null;
+            }
+            if (m_nextRight.getField(f2).equals(key)) {
+                m_runKey = key;
+                while (m_nextRight != null && m_nextRight.getField(f2).equals(key)) {
+                    m_run.add(m_nextRight);
+                    m_nextRight = m_right.hasNext() ? m_right.next() : null;
+                }
+            }
+        }
+    }
+
+    private Tuple fetchNextRange() throws TransactionAbortedException,
+            DbException {
+        while (true) {
+            if (m_leftTuple != null && m_runPos < m_run.size()) {
+                return mergeTuples(m_leftTuple, m_run.get(m_runPos++));
+            }
+            if (!m_left.hasNext()) {
+                m_leftTuple = null;
+                return null;
+            }
+            m_leftTuple = m_left.next();
+            m_runPos = 0;
+            // the inputs are in the same order, so every right tuple that
+            // matched the last left tuple matches this one too; only the
+            // tuples after the prefix need to be compared
+            while (m_nextRight != null && m_p.filter(m_leftTuple, m_nextRight)) {
+                m_run.add(m_nextRight);
+                m_nextRight = m_right.hasNext() ? m_right.next() : null;
+            }
+        }
+    }
+
+    private Tuple mergeTuples(Tuple left, Tuple right) {
+        int numLeft = left.getTupleDesc().numFields();
+        int numRight = right.getTupleDesc().numFields();
+        Tuple result = new Tuple(m_td);
+        for (int i = 0; i < numLeft; i++) {
+            result.setField(i, left.getField(i));
+        }
+        for (int j = 0; j < numRight; j++) {
+            result.setField(numLeft + j, right.getField(j));
+        }
+        return result;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { m_child1, m_child2 };
+    }
+
+    /**
+     * Children that are not ordered as needed are wrapped in an OrderBy.
+     */
+    @Override
+    public void setChildren(DbIterator[] children) {
+        m_child1 = children[0];
+        m_child2 = children[1];
+        m_td = TupleDesc.merge(m_child1.getTupleDesc(), m_child2.getTupleDesc());
+        boolean asc = ascending(m_p.getOperator());
+        if (!isSortedOn(m_child1, m_p.getField1(), asc)) {
+            m_left = new OrderBy(m_p.getField1(), asc, m_child1);
+        } else {
+            m_left = m_child1;
+        }
+        if (!isSortedOn(m_child2, m_p.getField2(), asc)) {
+            m_right = new OrderBy(m_p.getField2(), asc, m_child2);
+        } else {
+            m_right = m_child2;
+        }
+    }
+
+}
@@ -0,0 +1,244 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * SpillFile is a temporary, append-only file of tuples, laid out in the same
+ * page format as a {@link HeapFile}. Operators that run out of memory write
+ * tuples to a SpillFile with {@link #add} and read them back later through
+ * {@link #iterator}.
+ * <p>
+ * Spill files are not registered with the Catalog and are read and written
+ * directly, not through the BufferPool. Only the page currently being filled
+ * is kept in memory. The backing file is removed by {@link #delete}, or when
+ * the JVM exits.
+ */
+public class SpillFile {
+
+    private final TupleDesc m_td;
+
+    private final File m_file;
+
+    private final RandomAccessFile m_raf;
+
+    private final FileChannel m_channel;
+
+    private final int m_tableId;
+
+    private final int m_slotsPerPage;
+
+    private final int m_headerSize;
+
+    private final int m_tupleSize;
+
+    /** The page currently being filled */
+    private final byte[] m_page;
+
+    /** Number of used slots in m_page */
+    private int m_pageSlots;
+
+    /** Number of pages written to disk */
+    private int m_numPages;
+
+    private int m_numTuples;
+
+    /** Set once the file has been read from; no more tuples may be added */
+    private boolean m_sealed;
+
+    /** Writes serialized fields straight into m_page */
+    private final PageOutputStream m_pageOut;
+
+    private final DataOutputStream m_dos;
+
+    /**
+     * Creates a new, empty spill file in the default temporary-file
+     * directory.
+     *
+     * @param td
+     *            the schema of the tuples that will be stored in this file
+     * @throws IOException
+     *             if the temporary file cannot be created
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        m_td = td;
+        m_file = File.createTempFile("simpledb-spill", ".dat");
+        m_file.deleteOnExit();
+        m_raf = new RandomAccessFile(m_file, "rw");
+        m_channel = m_raf.getChannel();
+        m_tableId = m_file.getAbsoluteFile().hashCode();
+        m_slotsPerPage = HeapPage.getNumTuples(td);
+        m_headerSize = HeapPage.getHeaderSize(td);
+        m_tupleSize = td.getSize();
+        m_page = new byte[BufferPool.PAGE_SIZE];
+        m_pageOut = new PageOutputStream();
+        m_dos = new DataOutputStream(m_pageOut);
+    }
+
+    /**
+     * @return the schema of the tuples in this file
+     */
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    /**
+     * @return the number of tuples added to this file
+     */
+    public int numTuples() {
+        return m_numTuples;
+    }
+
+    /**
+     * Appends a tuple to this file. The tuple itself is not modified.
+     *
+     * @throws IOException
+     *             if a full page cannot be written out
+     * @throws IllegalStateException
+     *             if the file has already been read from
+     */
+    public void add(Tuple t) throws IOException {
+        if (m_sealed) {
+            throw new IllegalStateException("SpillFile has already been read");
+        }
+        int slot = m_pageSlots;
+        m_pageOut.pos = m_headerSize + slot * m_tupleSize;
+        for (int i = 0; i < m_td.numFields(); i++) {
+            t.getField(i).serialize(m_dos);
+        }
+        m_page[slot / 8] |= (byte) (1 << (slot % 8));
+        m_pageSlots++;
+        m_numTuples++;
+        if (m_pageSlots == m_slotsPerPage) {
+            writeCurrentPage();
+        }
+    }
+
+    private void writeCurrentPage() throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(m_page);
+        long offset = (long) m_numPages * BufferPool.PAGE_SIZE;
+        while (b.hasRemaining()) {
+            offset += m_channel.write(b, offset);
+        }
+        m_numPages++;
+        m_pageSlots = 0;
+        Arrays.fill(m_page, (byte) 0);
+    }
+
+    private HeapPage readPage(int pageNo) throws IOException {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        ByteBuffer b = ByteBuffer.wrap(data);
+        long offset = (long) pageNo * BufferPool.PAGE_SIZE;
+        while (b.hasRemaining()) {
+            int n = m_channel.read(b, offset);
+            if (n < 0) {
+                throw new EOFException("Short read of spill page " + pageNo);
+            }
+            offset += n;
+        }
+        return new HeapPage(new HeapPageId(m_tableId, pageNo), data, m_td);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file, in the order they
+     * were added. After this is called no more tuples may be added, but any
+     * number of iterators may be created.
+     *
+     * @throws IOException
+     *             if the last, partially filled page cannot be written out
+     */
+    public DbIterator iterator() throws IOException {
+        if (!m_sealed) {
+            if (m_pageSlots > 0) {
+                writeCurrentPage();
+            }
+            m_sealed = true;
+        }
+        return new SpillFileIterator();
+    }
+
+    /**
+     * Closes and removes the backing file.
+     */
+    public void delete() {
+        try {
+            m_raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        m_file.delete();
+    }
+
+    /**
+     * OutputStream that writes into m_page at a movable position.
+     */
+    private class PageOutputStream extends OutputStream {
+        int pos;
+
+        public void write(int b) {
+            m_page[pos++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            System.arraycopy(b, off, m_page, pos, len);
+            pos += len;
+        }
+    }
+
+    /**
+     * Reads the pages of this file back in order.
+     */
+    private class SpillFileIterator implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private int m_pageNo;
+
+        private Iterator<Tuple> m_tupleIt;
+
+        private boolean m_open;
+
+        public void open() {
+            m_open = true;
+            m_pageNo = 0;
+            m_tupleIt = null;
+        }
+
+        public boolean hasNext() throws DbException {
+            if (!m_open)
+                throw new IllegalStateException("Iterator not yet open");
+            while (m_tupleIt == null || !m_tupleIt.hasNext()) {
+                if (m_pageNo >= m_numPages) {
+                    return false;
+                }
+                try {
+                    m_tupleIt = readPage(m_pageNo++).iterator();
+                } catch (IOException e) {
+                    throw new DbException("Cannot read spill file: " + e);
+                }
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return m_tupleIt.next();
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return m_td;
+        }
+
+        public void close() {
+            m_open = false;
+            m_tupleIt = null;
+        }
+    }
+}
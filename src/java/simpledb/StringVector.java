@@ -0,0 +1,125 @@
+package simpledb;
+
+/**
+ * A column of string values, kept as bytes the way they are stored on
+ * pages: row r has lengths[r] bytes starting at offset r * Type.STRING_LEN
+ * of one shared array. Values are compared byte by byte, which is the
+ * order of String.compareTo for the ASCII strings SimpleDb stores.
+ */
+public class StringVector extends ColumnVector {
+
+    /** The bytes of each row, Type.STRING_LEN bytes apart */
+    final byte[] bytes;
+
+    /** The number of bytes of each row */
+    final int[] lengths;
+
+    StringVector(int capacity) {
+        bytes = new byte[capacity * Type.STRING_LEN];
+        lengths = new int[capacity];
+    }
+
+    /**
+     * @return the offset of the bytes of row in {@link #bytes}
+     */
+    static int offset(int row) {
+        return row * Type.STRING_LEN;
+    }
+
+    public Type getType() {
+        return Type.STRING_TYPE;
+    }
+
+    public String get(int row) {
+        return new String(bytes, offset(row), lengths[row]);
+    }
+
+    /**
+     * Sets the value of row, truncated to Type.STRING_LEN bytes.
+     */
+    public void set(int row, String s) {
+        byte[] b = s.getBytes();
+        int len = Math.min(b.length, Type.STRING_LEN);
+        System.arraycopy(b, 0, bytes, offset(row), len);
+        lengths[row] = len;
+    }
+
+    public Field getField(int row) {
+        return new StringField(get(row), Type.STRING_LEN);
+    }
+
+    public void setField(int row, Field f) {
+        set(row, ((StringField) f).getValue());
+    }
+
+    /**
+     * @return a negative number, zero or a positive number as the value of
+     *         row is less than, equal to or greater than the bytes of s
+     */
+    public int compare(int row, byte[] s) {
+        int off = offset(row);
+        int n = Math.min(lengths[row], s.length);
+        for (int i = 0; i < n; i++) {
+            int d = (bytes[off + i] & 0xff) - (s[i] & 0xff);
+            if (d != 0)
+                return d;
+        }
+        return lengths[row] - s.length;
+    }
+
+    /**
+     * @return true if the bytes of s occur in the value of row
+     */
+    public boolean contains(int row, byte[] s) {
+        int off = offset(row);
+        int last = lengths[row] - s.length;
+        for (int start = 0; start <= last; start++) {
+            int i = 0;
+            while (i < s.length && bytes[off + start + i] == s[i])
+                i++;
+            if (i == s.length)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if every byte of the value of row is ASCII
+     */
+    public boolean isAscii(int row) {
+        int off = offset(row);
+        for (int i = 0; i < lengths[row]; i++) {
+            if (bytes[off + i] < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the same hash as String.hashCode of the value of row, if it
+     *         is ASCII
+     * @see #isAscii
+     */
+    public int hashCode(int row) {
+        int off = offset(row);
+        int h = 0;
+        for (int i = 0; i < lengths[row]; i++)
+            h = 31 * h + (bytes[off + i] & 0xff);
+        return h;
+    }
+
+    /**
+     * @return true if the value of row, which must be ASCII, is s
+     * @see #isAscii
+     */
+    public boolean equals(int row, String s) {
+        if (lengths[row] != s.length())
+            return false;
+        int off = offset(row);
+        for (int i = 0; i < lengths[row]; i++) {
+            if ((bytes[off + i] & 0xff) != s.charAt(i))
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,175 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT n. Rather than
+ * sorting its whole child like {@link OrderBy}, it keeps only the first n
+ * tuples of the ordering seen so far in a bounded heap, so it runs in
+ * O(m log n) time and O(n) memory for a child of m tuples.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The most tuples room is made for in the heap up front; it grows past
+     * this as tuples arrive, so a huge LIMIT does not allocate for rows that
+     * never come.
+     */
+    private static final int INITIAL_HEAP_CAPACITY = 1024;
+
+    private DbIterator child;
+    private TupleDesc td;
+    private ArrayList<Tuple> topTups = new ArrayList<Tuple>();
+    private int[] orderByFields;
+    private String orderByFieldName;
+    private boolean[] asc;
+    private TupleComparator cmp;
+    private int limit;
+    private Iterator<Tuple> it;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the maximum number of tuples to return; at least 0
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, DbIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, limit, child);
+    }
+
+    /**
+     * Creates a new TopN node that orders the tuples from the iterator on
+     * several fields, as {@link OrderBy} does.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if its sort order is ascending.
+     * @param limit
+     *            the maximum number of tuples to return; at least 0
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int limit, DbIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must not be negative");
+        this.child = child;
+        td = child.getTupleDesc();
+        this.cmp = new TupleComparator(td, orderbyFields, asc);
+        this.orderByFields = orderbyFields.clone();
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.asc = asc.clone();
+        this.limit = limit;
+    }
+
+    /**
+     * @return true if the sort order of the first ORDER BY field is ascending
+     */
+    public boolean isASC() {
+        return this.asc[0];
+    }
+
+    /**
+     * @return the first (most significant) ORDER BY field
+     */
+    public int getOrderByField() {
+        return this.orderByFields[0];
+    }
+
+    public String getOrderFieldName() {
+        return this.orderByFieldName;
+    }
+
+    /**
+     * @return all ORDER BY fields, most significant first
+     */
+    public int[] getOrderByFields() {
+        return this.orderByFields.clone();
+    }
+
+    /**
+     * @return for each ORDER BY field, true if its sort order is ascending
+     */
+    public boolean[] getAscending() {
+        return this.asc.clone();
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        topTups.clear();
+        if (limit > 0) {
+            // the head of the heap is the last of the tuples kept so far
+            PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(
+                    Math.min(limit, INITIAL_HEAP_CAPACITY),
+                    Collections.reverseOrder(cmp));
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (heap.size() < limit) {
+                    heap.add(t);
+                } else if (cmp.compare(t, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(t);
+                }
+            }
+            topTups.addAll(heap);
+            Collections.sort(topTups, cmp);
+        }
+        it = topTups.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        topTups.clear();
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = topTups.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the first limit tuples of the
+     * ordering, in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        } else
+            return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
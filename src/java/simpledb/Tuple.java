@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -9,6 +11,10 @@ import java.util.List;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * A tuple read from a page keeps the page instead, and decodes each field
+ * from the page's bytes the first time it is asked for, so that fields no
+ * operator looks at are never decoded.
  */
 public class Tuple implements Serializable {
 
@@ -36,12 +42,48 @@ public class Tuple implements Serializable {
      * private member which represents a tupledesc of a tuple
      */
     private TupleDesc m_td;
+
+    /*
+     * the page whose bytes the fields not decoded yet are decoded from, or
+     * null if all fields are set with setField
+     */
+    private transient HeapPage m_source;
+
+    /*
+     * the index in the page's bytes of the start of this tuple
+     */
+    private transient int m_base;
+
+    /*
+     * the offset of each field from the start of this tuple
+     */
+    private transient int[] m_offsets;
     
     public Tuple(TupleDesc td) {
         m_td = td;
         m_fields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple whose fields are decoded from the bytes of a page when
+     * they are first read.
+     * 
+     * @param td
+     *            the schema of this tuple.
+     * @param source
+     *            the page holding the fields of the tuple
+     * @param base
+     *            the index in the page's bytes of the start of the tuple
+     * @param offsets
+     *            the offset from base of each field
+     */
+    Tuple(TupleDesc td, HeapPage source, int base, int[] offsets) {
+        this(td);
+        m_source = source;
+        m_base = base;
+        m_offsets = offsets;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -92,7 +134,29 @@ public class Tuple implements Serializable {
     	if(i >= m_td.numFields()){
     		return null;
     	}
-    	return m_fields[i];
+    	Field f = m_fields[i];
+    	if(f == null && m_source != null){
+    		f = m_td.getFieldType(i).parse(m_source.data(), m_base + m_offsets[i]);
+    		m_fields[i] = f;
+    	}
+    	return f;
+    }
+
+    /**
+     * Decodes every field that has not been decoded yet, so that the tuple no
+     * longer depends on the bytes it was read from.
+     */
+    void decodeAll() {
+    	if(m_source != null){
+    		for(int i = 0; i < m_fields.length; i++){
+    			getField(i);
+    		}
+    	}
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+    	decodeAll();
+    	out.defaultWriteObject();
     }
 
     /**
@@ -104,6 +168,7 @@ public class Tuple implements Serializable {
      * where \t is any whitespace, except newline, and \n is a newline
      */
     public String toString() {
+    	decodeAll();
     	String result = new String();
     	for(int i = 0; i < m_td.numFields(); i++){
     		if( i == m_td.numFields() - 1){
@@ -122,6 +187,7 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
+    	decodeAll();
     	List<Field> arrAsList = Arrays.asList(m_fields);
     	Iterator<Field> it = arrAsList.iterator();
         return it;
@@ -0,0 +1,232 @@
+package simpledb;
+
+/**
+ * TupleBatch holds up to a fixed number of rows of a TupleDesc column by
+ * column, in a {@link ColumnVector} per field, plus where each row was read
+ * from, if it is from a table. Operators that work on batches read and write
+ * the vectors directly.
+ * <p>
+ * A batch has a selection vector: the indexes, in increasing order, of the
+ * rows of the vectors that are in the batch. Filters narrow the selection
+ * instead of moving the rows that pass. The row arguments of the methods of
+ * a batch count selected rows, 0 to size() - 1; {@link #selection} maps them
+ * to indexes in the vectors.
+ */
+public class TupleBatch {
+
+    /** The number of rows in a batch, unless another capacity is given */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc m_td;
+
+    private final int m_capacity;
+
+    private final ColumnVector[] m_columns;
+
+    /** The number of rows filled in the vectors */
+    private int m_count;
+
+    /** The number of selected rows */
+    private int m_size;
+
+    /** The selected rows, at 0 to m_size - 1 */
+    private final int[] m_selection;
+
+    /** True if m_selection is 0, 1, 2, ... */
+    private boolean m_allSelected;
+
+    /** Per row: the page it was read from, or null */
+    private final PageId[] m_pages;
+
+    /** Per row: its slot on that page */
+    private final int[] m_slots;
+
+    /**
+     * Creates an empty batch of DEFAULT_CAPACITY rows.
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td
+     *            the type of the rows
+     * @param capacity
+     *            the greatest number of rows it holds
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        m_td = td;
+        m_capacity = capacity;
+        m_columns = new ColumnVector[td.numFields()];
+        for (int i = 0; i < m_columns.length; i++)
+            m_columns[i] = ColumnVector.create(td.getFieldType(i), capacity);
+        m_selection = new int[capacity];
+        for (int r = 0; r < capacity; r++)
+            m_selection[r] = r;
+        m_allSelected = true;
+        m_pages = new PageId[capacity];
+        m_slots = new int[capacity];
+    }
+
+    private TupleBatch(TupleBatch other, TupleDesc td, ColumnVector[] columns) {
+        m_td = td;
+        m_capacity = other.m_capacity;
+        m_columns = columns;
+        m_count = other.m_count;
+        m_size = other.m_size;
+        m_selection = other.m_selection.clone();
+        m_allSelected = other.m_allSelected;
+        m_pages = other.m_pages;
+        m_slots = other.m_slots;
+    }
+
+    /**
+     * @return the type of the rows
+     */
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * @return the greatest number of rows
+     */
+    public int capacity() {
+        return m_capacity;
+    }
+
+    /**
+     * @return true if no more rows can be added
+     */
+    public boolean isFull() {
+        return m_count == m_capacity;
+    }
+
+    /**
+     * Removes all the rows.
+     */
+    public void clear() {
+        m_count = 0;
+        m_size = 0;
+        if (!m_allSelected) {
+            for (int r = 0; r < m_capacity; r++)
+                m_selection[r] = r;
+            m_allSelected = true;
+        }
+    }
+
+    /**
+     * @return the vector of field i
+     */
+    public ColumnVector column(int i) {
+        return m_columns[i];
+    }
+
+    /**
+     * @return the index in the vectors of each selected row; the first
+     *         size() entries are in use
+     */
+    int[] selection() {
+        return m_selection;
+    }
+
+    /**
+     * Adds a row after the last, and selects it. Rows can only be added
+     * while all rows are selected.
+     *
+     * @return the index of the row in the vectors, where the caller stores
+     *         its values
+     * @throws IllegalStateException
+     *             if the batch is full, or has been filtered
+     */
+    int addRow(PageId pid, int slot) {
+        if (isFull() || !m_allSelected)
+            throw new IllegalStateException("cannot add rows to this batch");
+        int r = m_count++;
+        m_size = m_count;
+        m_pages[r] = pid;
+        m_slots[r] = slot;
+        return r;
+    }
+
+    /**
+     * Adds the fields of t as a new row.
+     *
+     * @throws IllegalStateException
+     *             if the batch is full, or has been filtered
+     */
+    public void add(Tuple t) {
+        RecordId rid = t.getRecordId();
+        int r = rid == null ? addRow(null, 0)
+                : addRow(rid.getPageId(), rid.tupleno());
+        for (int i = 0; i < m_columns.length; i++)
+            m_columns[i].setField(r, t.getField(i));
+    }
+
+    /**
+     * @return field i of a row as a Field
+     */
+    public Field getField(int i, int row) {
+        return m_columns[i].getField(m_selection[row]);
+    }
+
+    /**
+     * @return the RecordId of a row, or null if it is not from a table
+     */
+    public RecordId getRecordId(int row) {
+        int r = m_selection[row];
+        return m_pages[r] == null ? null : new RecordId(m_pages[r], m_slots[r]);
+    }
+
+    /**
+     * @return a new Tuple holding a row
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(m_td);
+        int r = m_selection[row];
+        for (int i = 0; i < m_columns.length; i++)
+            t.setField(i, m_columns[i].getField(r));
+        t.setRecordId(getRecordId(row));
+        return t;
+    }
+
+    /**
+     * Selects only the given rows.
+     *
+     * @param rows
+     *            the indexes in the vectors of the rows to keep, a subset of
+     *            the selected rows in increasing order, as returned by
+     *            {@link Predicate#filter(TupleBatch, int[])}
+     * @param n
+     *            the number of rows to keep
+     */
+    public void select(int[] rows, int n) {
+        System.arraycopy(rows, 0, m_selection, 0, n);
+        m_size = n;
+        m_allSelected = false;
+    }
+
+    /**
+     * Returns a batch of the same rows with only some of the fields. It holds
+     * the vectors of this batch rather than copies of them.
+     *
+     * @param fields
+     *            the fields to keep, in their new order
+     * @param td
+     *            the type of the new rows
+     */
+    public TupleBatch project(int[] fields, TupleDesc td) {
+        ColumnVector[] columns = new ColumnVector[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            columns[i] = m_columns[fields[i]];
+        return new TupleBatch(this, td, columns);
+    }
+}
@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.util.Comparator;
+
+/**
+ * Compares tuples on one or more key fields, each ascending or descending.
+ * The comparison for each key is chosen once, from the key's type, when the
+ * comparator is built: int keys compare the values of their IntFields and
+ * string keys the values of their StringFields, so no comparison goes
+ * through Field.compare.
+ */
+class TupleComparator implements Comparator<Tuple> {
+    private final KeyComparator[] keys;
+
+    public TupleComparator(TupleDesc td, int[] fields, boolean[] asc) {
+        if (fields.length == 0 || fields.length != asc.length)
+            throw new IllegalArgumentException("need one direction per sort key");
+        keys = new KeyComparator[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            if (td.getFieldType(fields[i]) == Type.INT_TYPE)
+                keys[i] = new IntKeyComparator(fields[i], asc[i]);
+            else
+                keys[i] = new StringKeyComparator(fields[i], asc[i]);
+        }
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        for (int i = 0; i < keys.length; i++) {
+            int c = keys[i].compare(o1, o2);
+            if (c != 0)
+                return c;
+        }
+        return 0;
+    }
+
+    private static abstract class KeyComparator {
+        final int field;
+        final boolean asc;
+
+        KeyComparator(int field, boolean asc) {
+            this.field = field;
+            this.asc = asc;
+        }
+
+        abstract int compare(Tuple o1, Tuple o2);
+    }
+
+    private static class IntKeyComparator extends KeyComparator {
+        IntKeyComparator(int field, boolean asc) {
+            super(field, asc);
+        }
+
+        int compare(Tuple o1, Tuple o2) {
+            int v1 = ((IntField) o1.getField(field)).getValue();
+            int v2 = ((IntField) o2.getField(field)).getValue();
+            if (v1 == v2)
+                return 0;
+            return (v1 < v2) == asc ? -1 : 1;
+        }
+    }
+
+    private static class StringKeyComparator extends KeyComparator {
+        StringKeyComparator(int field, boolean asc) {
+            super(field, asc);
+        }
+
+        int compare(Tuple o1, Tuple o2) {
+            String v1 = ((StringField) o1.getField(field)).getValue();
+            String v2 = ((StringField) o2.getField(field)).getValue();
+            int c = v1.compareTo(v2);
+            return asc ? c : -c;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a BatchIterator a tuple at a time, so that a plan of operators that
+ * work on batches can be run by anything that takes a DbIterator. Only the
+ * rows that are read are made into Tuples.
+ */
+public class UnbatchingIterator implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator m_child;
+
+    private transient TupleBatch m_batch;
+
+    /** The next row of m_batch to return */
+    private transient int m_row;
+
+    private boolean m_open;
+
+    public UnbatchingIterator(BatchIterator child) {
+        m_child = child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_child.open();
+        m_open = true;
+        m_batch = null;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!m_open)
+            throw new IllegalStateException("Iterator not yet open");
+        while (m_batch == null || m_row == m_batch.size()) {
+            m_batch = m_child.nextBatch();
+            m_row = 0;
+            if (m_batch == null)
+                return false;
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return m_batch.getTuple(m_row++);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child.rewind();
+        m_batch = null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_child.getTupleDesc();
+    }
+
+    public void close() {
+        m_child.close();
+        m_open = false;
+        m_batch = null;
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -176,6 +177,73 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.getNext() computing several aggregates over
+   * two group by fields in one pass
+   */
+  @Test public void multipleAggregates() throws Exception {
+    DbIterator child = TestUtil.createTupleList(3,
+        new int[] { 1, 1, 2,
+                    1, 1, 4,
+                    1, 2, 6,
+                    3, 1, 2,
+                    3, 1, 5 });
+    Aggregate op = new Aggregate(child, new int[] { 2, 2, 2 },
+        new int[] { 0, 1 }, new Aggregator.Op[] { Aggregator.Op.COUNT,
+            Aggregator.Op.SUM, Aggregator.Op.MAX });
+    assertEquals(Utility.getTupleDesc(5), op.getTupleDesc());
+    DbIterator expected = TestUtil.createTupleList(5,
+        new int[] { 1, 1, 2, 6, 4,
+                    1, 2, 1, 6, 6,
+                    3, 1, 2, 7, 5 });
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    int count = 0;
+    op.rewind();
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(3, count);
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() when there are more groups than fit in
+   * memory, so the groups are spilled to partitions and merged later
+   */
+  @Test public void spillManyGroups() throws Exception {
+    int groups = 5000;
+    int n = groups * 4;
+    int[] data = new int[n * 2];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = i % groups;
+      data[2 * i + 1] = i;
+    }
+    Aggregate op = new Aggregate(TestUtil.createTupleList(2, data),
+        new int[] { 1, 1, 1 }, new int[] { 0 }, new Aggregator.Op[] {
+            Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.COUNT }, 1);
+    op.open();
+    assertTrue(op.hasSpilled());
+    for (int pass = 0; pass < 2; pass++) {
+      boolean[] seen = new boolean[groups];
+      int count = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        int g = ((IntField) t.getField(0)).getValue();
+        assertFalse(seen[g]);
+        seen[g] = true;
+        assertEquals(new IntField(4 * g + 6 * groups), t.getField(1));
+        assertEquals(new IntField(g), t.getField(2));
+        assertEquals(new IntField(4), t.getField(3));
+        count++;
+      }
+      assertEquals(groups, count);
+      op.rewind();
+    }
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,174 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+  private static final int THREADS = 8;
+
+  /**
+   * A table of empty pages that counts how often each is read, and reads
+   * slowly so that concurrent requests overlap.
+   */
+  private static class CountingFile extends SkeletonFile {
+    final AtomicInteger reads = new AtomicInteger();
+
+    CountingFile(int tableid) {
+      super(tableid, Utility.getTupleDesc(2));
+    }
+
+    public Page readPage(PageId id) {
+      reads.incrementAndGet();
+      try {
+        Thread.sleep(5);
+        return new HeapPage((HeapPageId) id, HeapPage.createEmptyPageData());
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  private CountingFile file;
+
+  @Before public void addTable() {
+    file = new CountingFile(-10);
+    Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+  }
+
+  /**
+   * Runs THREADS threads that each get pages 0 to numPages - 1 of file, all
+   * starting at once, and returns the pages each got.
+   */
+  private ArrayList<Page[]> getConcurrently(final BufferPool pool, final int numPages)
+      throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    final ArrayList<Page[]> results = new ArrayList<Page[]>();
+    final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+    ArrayList<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < THREADS; i++) {
+      final Page[] pages = new Page[numPages];
+      results.add(pages);
+      Thread t = new Thread() {
+        public void run() {
+          try {
+            start.await();
+            TransactionId tid = new TransactionId();
+            for (int p = 0; p < numPages; p++)
+              pages[p] = pool.getPage(tid, new HeapPageId(file.getId(), p),
+                  Permissions.READ_ONLY);
+          } catch (Throwable e) {
+            synchronized (errors) {
+              errors.add(e);
+            }
+          }
+        }
+      };
+      t.start();
+      threads.add(t);
+    }
+    start.countDown();
+    for (Thread t : threads)
+      t.join();
+    assertEquals(new ArrayList<Throwable>(), errors);
+    return results;
+  }
+
+  /**
+   * Threads asking for the same pages at once share a single read of each
+   */
+  @Test public void singleFlightReads() throws Exception {
+    BufferPool pool = new BufferPool(16);
+    ArrayList<Page[]> results = getConcurrently(pool, 4);
+    assertEquals(4, file.reads.get());
+    for (Page[] pages : results) {
+      for (int p = 0; p < pages.length; p++)
+        assertSame(results.get(0)[p], pages[p]);
+    }
+  }
+
+  /**
+   * Threads that need more pages than fit evict each other's pages without
+   * failing, and never read a page that is still cached
+   */
+  @Test public void concurrentEviction() throws Exception {
+    BufferPool pool = new BufferPool(4);
+    getConcurrently(pool, 32);
+    // every thread reads every page, but at most once per thread
+    assertTrue(file.reads.get() <= 32 * THREADS);
+    assertTrue(file.reads.get() >= 32);
+  }
+
+  /**
+   * Threads reading more distinct pages at once than fit wait for the reads
+   * in progress to finish rather than failing for want of a page to evict
+   */
+  @Test public void waitForReads() throws Exception {
+    final BufferPool pool = new BufferPool(2);
+    final CountDownLatch start = new CountDownLatch(1);
+    final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+    ArrayList<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < THREADS; i++) {
+      final int p = i;
+      Thread t = new Thread() {
+        public void run() {
+          try {
+            start.await();
+            pool.getPage(new TransactionId(), new HeapPageId(file.getId(), p),
+                Permissions.READ_ONLY);
+          } catch (Throwable e) {
+            synchronized (errors) {
+              errors.add(e);
+            }
+          }
+        }
+      };
+      t.start();
+      threads.add(t);
+    }
+    start.countDown();
+    for (Thread t : threads)
+      t.join();
+    assertEquals(new ArrayList<Throwable>(), errors);
+    assertEquals(THREADS, file.reads.get());
+  }
+
+  /**
+   * Prefetched pages are read once, in the background, and getPage then
+   * returns them without reading them again
+   */
+  @Test public void prefetch() throws Exception {
+    BufferPool pool = new BufferPool(16);
+    TransactionId tid = new TransactionId();
+    for (int p = 0; p < 4; p++)
+      pool.prefetch(new HeapPageId(file.getId(), p));
+    for (int p = 0; p < 4; p++)
+      pool.getPage(tid, new HeapPageId(file.getId(), p), Permissions.READ_ONLY);
+    assertEquals(4, file.reads.get());
+    // cached pages are not read again
+    pool.prefetch(new HeapPageId(file.getId(), 0));
+    pool.getPage(tid, new HeapPageId(file.getId(), 0), Permissions.READ_ONLY);
+    assertEquals(4, file.reads.get());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BufferPoolTest.class);
+  }
+}
@@ -41,6 +41,8 @@ public class CatalogTest extends SimpleDbTestBase {
     @Test public void getTableId() {
         assertEquals(-2, Database.getCatalog().getTableId(name));
         assertEquals(-1, Database.getCatalog().getTableId(nameThisTestRun));
+        // names are compared by value, as when they come from the parser
+        assertEquals(-2, Database.getCatalog().getTableId(new String(name)));
         
         try {
             Database.getCatalog().getTableId(null);
@@ -69,6 +71,20 @@ public class CatalogTest extends SimpleDbTestBase {
         assertEquals(-1, f.getId());
     }
 
+    /**
+     * Unit test for Catalog.getCacheHint() and Catalog.setCacheHint()
+     */
+    @Test public void cacheHint() throws Exception {
+        assertEquals(CacheHint.DEFAULT, Database.getCatalog().getCacheHint(-1));
+        Database.getCatalog().setCacheHint(-1, CacheHint.KEEP);
+        assertEquals(CacheHint.KEEP, Database.getCatalog().getCacheHint(-1));
+        assertEquals(CacheHint.DEFAULT, Database.getCatalog().getCacheHint(-2));
+
+        Database.getCatalog().addTable(new SkeletonFile(-3, Utility.getTupleDesc(2)),
+                "recycled", "", CacheHint.RECYCLE);
+        assertEquals(CacheHint.RECYCLE, Database.getCatalog().getCacheHint(-3));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,147 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+  private static final int HOT_PAGES = 4;
+  private static final int CAPACITY = 8;
+
+  /**
+   * Simulates a buffer pool of CAPACITY pages over policy: a few hot pages
+   * are used twice, then a scan reads scanPages pages once. Returns the
+   * pages still cached at the end.
+   */
+  private static HashSet<PageId> runScan(EvictionPolicy policy, int scanPages) {
+    final HashSet<PageId> cached = new HashSet<PageId>();
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < HOT_PAGES; i++)
+        access(policy, cached, new HeapPageId(1, i));
+    }
+    for (int i = 0; i < scanPages; i++)
+      access(policy, cached, new HeapPageId(2, i));
+    return cached;
+  }
+
+  private static void access(EvictionPolicy policy, HashSet<PageId> cached,
+      PageId pid) {
+    if (cached.contains(pid)) {
+      policy.pageAccessed(pid);
+      return;
+    }
+    if (cached.size() == CAPACITY) {
+      PageId victim = policy.chooseVictim(new EvictionPolicy.Candidates() {
+        public boolean canEvict(PageId candidate) {
+          return true;
+        }
+      });
+      cached.remove(victim);
+      policy.pageRemoved(victim);
+    }
+    cached.add(pid);
+    policy.pageLoaded(pid);
+  }
+
+  private static void checkHotPagesSurvive(EvictionPolicy policy, int scanPages) {
+    HashSet<PageId> cached = runScan(policy, scanPages);
+    assertEquals(CAPACITY, cached.size());
+    for (int i = 0; i < HOT_PAGES; i++)
+      assertTrue(cached.contains(new HeapPageId(1, i)));
+  }
+
+  /**
+   * Pages used twice survive a scan of any length under LRU-2
+   */
+  @Test public void lruKScanResistance() {
+    checkHotPagesSurvive(new LruKEvictionPolicy(2), CAPACITY * 20);
+  }
+
+  /**
+   * Pages used twice survive a scan that fills the whole buffer pool under
+   * CLOCK, where LRU would have evicted them all
+   */
+  @Test public void clockScanResistance() {
+    checkHotPagesSurvive(new ClockEvictionPolicy(), CAPACITY);
+  }
+
+  /**
+   * Policies must skip pages that cannot be evicted, and return null when
+   * no page can be
+   */
+  @Test public void skipsPinnedPages() {
+    EvictionPolicy[] policies = { new LruKEvictionPolicy(),
+        new ClockEvictionPolicy() };
+    for (EvictionPolicy policy : policies) {
+      final PageId pinned = new HeapPageId(1, 0);
+      PageId other = new HeapPageId(1, 1);
+      policy.pageLoaded(pinned);
+      policy.pageLoaded(other);
+      PageId victim = policy.chooseVictim(new EvictionPolicy.Candidates() {
+        public boolean canEvict(PageId pid) {
+          return !pid.equals(pinned);
+        }
+      });
+      assertEquals(other, victim);
+      policy.pageRemoved(victim);
+      assertNull(policy.chooseVictim(new EvictionPolicy.Candidates() {
+        public boolean canEvict(PageId pid) {
+          return false;
+        }
+      }));
+    }
+  }
+
+  /**
+   * KEEP pages survive a scan of RECYCLE pages even under LRU, and RECYCLE
+   * pages go before DEFAULT pages
+   */
+  @Test public void cacheHints() {
+    HintedEvictionPolicy policy = new HintedEvictionPolicy(new LruKEvictionPolicy(1));
+    HashSet<PageId> cached = new HashSet<PageId>();
+    EvictionPolicy.Candidates any = new EvictionPolicy.Candidates() {
+      public boolean canEvict(PageId pid) {
+        return true;
+      }
+    };
+    PageId kept = new HeapPageId(1, 0);
+    PageId normal = new HeapPageId(3, 0);
+    policy.pageLoaded(kept, CacheHint.KEEP);
+    policy.pageLoaded(normal, CacheHint.DEFAULT);
+    cached.add(kept);
+    cached.add(normal);
+    for (int i = 0; i < CAPACITY * 20; i++) {
+      if (cached.size() == CAPACITY) {
+        PageId victim = policy.chooseVictim(any);
+        cached.remove(victim);
+        policy.pageRemoved(victim);
+      }
+      PageId pid = new HeapPageId(2, i);
+      cached.add(pid);
+      policy.pageLoaded(pid, CacheHint.RECYCLE);
+    }
+    assertTrue(cached.contains(kept));
+    assertTrue(cached.contains(normal));
+
+    // with only KEEP pages left, they are evicted rather than none
+    policy = new HintedEvictionPolicy(new LruKEvictionPolicy(1));
+    policy.pageLoaded(kept, CacheHint.KEEP);
+    assertEquals(kept, policy.chooseVictim(any));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(EvictionPolicyTest.class);
+  }
+}
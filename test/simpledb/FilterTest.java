@@ -120,6 +120,41 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * Unit test for Filter.getNext() using a conjunction of predicates
+   */
+  @Test public void filterConjunction() throws Exception {
+    Predicate[] preds = new Predicate[] {
+        new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, TestUtil.getField(-2)),
+        new Predicate(0, Predicate.Op.LESS_THAN, TestUtil.getField(3)),
+        new Predicate(0, Predicate.Op.NOT_EQUALS, TestUtil.getField(0)) };
+    Filter op = new Filter(preds, scan);
+    op.open();
+    for (int i = -2; i < 3; i++) {
+      if (i == 0)
+        continue;
+      assertTrue(op.hasNext());
+      assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(i, testWidth), op.next()));
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for Filter.nextBatch() using a conjunction of predicates
+   */
+  @Test public void filterConjunctionBatch() throws Exception {
+    Predicate[] preds = new Predicate[] {
+        new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(-3)),
+        new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, TestUtil.getField(1)) };
+    Filter op = new Filter(preds, scan);
+    TestUtil.MockScan expectedOut = new TestUtil.MockScan(-2, 2, testWidth);
+    DbIterator batches = new UnbatchingIterator(op);
+    batches.open();
+    TestUtil.compareDbIterators(batches, expectedOut);
+    batches.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,192 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+  DbIterator eqJoinSwapped;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+    this.eqJoinSwapped = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 3, 1, 2,
+                    3, 4, 5, 3, 4,
+                    5, 6, 7, 5, 6 });
+  }
+
+  /**
+   * Unit test for HashJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for HashJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+      count++;
+    }
+    assertEquals(3, count);
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    count = 0;
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+      count++;
+    }
+    assertEquals(3, count);
+  }
+
+  /**
+   * Unit test for HashJoin.getNext() building on the left child
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for HashJoin.getNext() building on the right child; the output
+   * must still be left fields followed by right fields
+   */
+  @Test public void eqJoinBuildRight() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan2, scan1);
+    op.open();
+    eqJoinSwapped.open();
+    TestUtil.matchAllTuples(eqJoinSwapped, op);
+  }
+
+  /**
+   * Unit test for HashJoin.getNext() with duplicate keys on both sides
+   */
+  @Test public void duplicateKeys() throws Exception {
+    DbIterator left = TestUtil.createTupleList(1, new int[] { 1, 1, 2 });
+    DbIterator right = TestUtil.createTupleList(1, new int[] { 1, 1, 1, 3 });
+    HashJoin op = new HashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        left, right);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(new IntField(1), t.getField(0));
+      assertEquals(new IntField(1), t.getField(1));
+      count++;
+    }
+    assertEquals(6, count);
+  }
+
+  /**
+   * Unit test for HashJoin.getNext() when neither child fits in the memory
+   * budget and both are partitioned to disk
+   */
+  @Test public void spilledJoin() throws Exception {
+    int[] leftData = new int[3000];
+    for (int i = 0; i < leftData.length; i++)
+      leftData[i] = i % 500;
+    int[] rightData = new int[2000];
+    for (int i = 0; i < rightData.length; i++)
+      rightData[i] = i % 1000;
+    HashJoin op = new HashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        TestUtil.createTupleList(1, leftData),
+        TestUtil.createTupleList(1, rightData), 1);
+    op.open();
+    assertTrue(op.hasSpilled());
+    for (int pass = 0; pass < 2; pass++) {
+      int count = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        assertEquals(t.getField(0), t.getField(1));
+        count++;
+      }
+      // keys 0..499 appear 6 times on the left and twice on the right
+      assertEquals(500 * 6 * 2, count);
+      op.rewind();
+    }
+    op.close();
+  }
+
+  /**
+   * A partition made of a single key cannot be split; it must still be
+   * joined once the partitioning depth is exhausted
+   */
+  @Test public void spilledSkewedJoin() throws Exception {
+    int[] leftData = new int[1100];
+    for (int i = 0; i < leftData.length; i++)
+      leftData[i] = (i < 1000) ? 7 : i;
+    int[] rightData = new int[1050];
+    for (int i = 0; i < rightData.length; i++)
+      rightData[i] = (i < 1000) ? 7 : -i;
+    HashJoin op = new HashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        TestUtil.createTupleList(1, leftData),
+        TestUtil.createTupleList(1, rightData), 1);
+    op.open();
+    assertTrue(op.hasSpilled());
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(1000 * 1000, count);
+    op.close();
+  }
+
+  /**
+   * HashJoin only handles equality predicates
+   */
+  @Test(expected = IllegalArgumentException.class) public void rejectsInequality() {
+    new HashJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashJoinTest.class);
+  }
+}
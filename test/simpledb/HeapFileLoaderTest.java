@@ -0,0 +1,79 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HeapFileLoaderTest extends SimpleDbTestBase {
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("loader", suffix);
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Loads many small chunks on several threads: lines that cross chunks,
+     * blank lines and CRLF endings must all be read once, in order
+     */
+    @Test public void loadInOrder() throws Exception {
+        int n = 3000;
+        File in = tempFile(".txt");
+        FileWriter w = new FileWriter(in);
+        for (int i = 0; i < n; i++) {
+            w.write(" " + (i * 37 % 1001 - 500) + ", name" + i);
+            w.write(i % 7 == 0 ? "\r\n\n" : "\n");
+        }
+        w.close();
+
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        HeapFileLoader loader = new HeapFileLoader(types, ',');
+        loader.setParallelism(3);
+        loader.setChunkBytes(100);
+        File out = tempFile(".dat");
+        HeapFileLoader.Stats stats = loader.load(in, out);
+        assertEquals(n, stats.numTuples());
+
+        HeapFile hf = new HeapFile(out, new TupleDesc(types));
+        Database.getCatalog().addTable(hf, "loaded");
+        assertEquals(stats.numPages(), hf.numPages());
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertEquals(i * 37 % 1001 - 500, ((IntField) t.getField(0)).getValue());
+            assertEquals("name" + i, ((StringField) t.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * A line with too few fields is an error
+     */
+    @Test(expected = IOException.class) public void malformedLine() throws Exception {
+        File in = tempFile(".txt");
+        FileWriter w = new FileWriter(in);
+        w.write("1,2\n3\n");
+        w.close();
+        new HeapFileLoader(new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ',')
+                .load(in, tempFile(".dat"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileLoaderTest.class);
+    }
+}
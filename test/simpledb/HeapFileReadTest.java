@@ -121,6 +121,92 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.readPage() on a memory-mapped file, including a
+     * page added after the file was mapped
+     */
+    @Test
+    public void readMappedPage() throws Exception {
+        HeapFile file = SystemTestUtil.createRandomHeapFile(2, 1200, null, null);
+        HeapFile mapped = new HeapFile(file.getFile(), td, true);
+        assertTrue(mapped.isMapped());
+        assertEquals(file.numPages(), mapped.numPages());
+        for (int p = 0; p < file.numPages(); p++) {
+            HeapPageId pid = new HeapPageId(file.getId(), p);
+            HeapPage expected = (HeapPage) file.readPage(pid);
+            HeapPage actual = (HeapPage) mapped.readPage(pid);
+            assertTrue(Arrays.equals(expected.getPageData(), actual.getPageData()));
+            assertTrue(Arrays.equals(expected.getPageData(),
+                    actual.getBeforeImage().getPageData()));
+        }
+
+        // grow the file past the mapping
+        int last = mapped.numPages();
+        HeapPageId pid = new HeapPageId(file.getId(), last);
+        HeapPage added = new HeapPage(pid, HeapPage.createEmptyPageData());
+        added.insertTuple(Utility.getHeapTuple(7, 2));
+        mapped.writePage(added);
+        HeapPage read = (HeapPage) mapped.readPage(pid);
+        assertEquals(1, read.getNumValidTuples());
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() on a memory-mapped file: tuples read
+     * from a page keep their values after the page is written over
+     */
+    @Test
+    public void mappedTuplesDoNotChange() throws Exception {
+        HeapFile file = SystemTestUtil.createRandomHeapFile(2, 20, null, null);
+        HeapFile mapped = new HeapFile(file.getFile(), td, true);
+        HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+        Tuple expected = ((HeapPage) file.readPage(pid)).iterator().next();
+        // not decoded until its fields are read
+        Tuple t = ((HeapPage) mapped.readPage(pid)).iterator().next();
+
+        HeapPage other = new HeapPage(pid, HeapPage.createEmptyPageData());
+        other.insertTuple(Utility.getHeapTuple(new int[] {
+                ((IntField) expected.getField(0)).getValue() + 1,
+                ((IntField) expected.getField(1)).getValue() + 1 }));
+        mapped.writePage(other);
+        assertTrue(TestUtil.compareTuples(expected, t));
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() on a memory-mapped file: a page read
+     * before the page is written over keeps its bytes and before image, and
+     * a page read after sees the write
+     */
+    @Test
+    public void mappedPageWrittenOver() throws Exception {
+        HeapFile file = SystemTestUtil.createRandomHeapFile(2, 20, null, null);
+        HeapFile mapped = new HeapFile(file.getFile(), td, true);
+        HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+        byte[] before = ((HeapPage) file.readPage(pid)).getPageData();
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+
+        HeapPage other = new HeapPage(pid, HeapPage.createEmptyPageData());
+        other.insertTuple(Utility.getHeapTuple(7, 2));
+        mapped.writePage(other);
+        assertTrue(Arrays.equals(before, page.getPageData()));
+        assertTrue(Arrays.equals(before, page.getBeforeImage().getPageData()));
+        assertEquals(1, ((HeapPage) mapped.readPage(pid)).getNumValidTuples());
+    }
+
+    /**
+     * The system property simpledb.mapped makes new HeapFiles memory-mapped
+     */
+    @Test
+    public void mappedProperty() throws Exception {
+        HeapFile file = SystemTestUtil.createRandomHeapFile(2, 20, null, null);
+        assertFalse(file.isMapped());
+        System.setProperty(HeapFile.MAPPED_PROPERTY, "true");
+        try {
+            assertTrue(new HeapFile(file.getFile(), td).isMapped());
+        } finally {
+            System.clearProperty(HeapFile.MAPPED_PROPERTY);
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -5,6 +5,10 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import junit.framework.JUnit4TestAdapter;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
@@ -43,6 +47,94 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for the free-space map: space freed by a delete is found by
+     * inserts into the file when it is opened again, whether the map is read
+     * back or built from the pages
+     */
+    @Test public void freeSpaceMap() throws Exception {
+        // fill two pages, then make room on the first
+        for (int i = 0; i < 2 * 504; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, empty.numPages());
+        DbFileIterator it = empty.iterator(tid, 0, 1);
+        it.open();
+        empty.deleteTuple(tid, it.next());
+        it.close();
+        Database.getBufferPool().flushAllPages();
+        File fsm = new File(empty.getFile().getPath() + ".fsm");
+        assertTrue(fsm.exists());
+
+        // the map is read back
+        Database.reset();
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(reopened, "reopened");
+        ArrayList<Page> pages = reopened.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(0, pages.get(0).getId().pageNumber());
+        assertEquals(2, reopened.numPages());
+        pages = reopened.insertTuple(tid, Utility.getHeapTuple(2, 2));
+        assertEquals(2, pages.get(0).getId().pageNumber());
+
+        // the map is built from the pages; the inserts above were not flushed
+        // but the empty page they added was
+        Database.reset();
+        assertTrue(fsm.delete());
+        reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(reopened, "reopened");
+        pages = reopened.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(0, pages.get(0).getId().pageNumber());
+        assertEquals(3, reopened.numPages());
+    }
+
+    /**
+     * Unit test for the free-space map: a change that is never flushed, as
+     * after a crash or an abort, does not reach the map file
+     */
+    @Test public void freeSpaceMapUnflushed() throws Exception {
+        // leave one empty slot on the first page
+        for (int i = 0; i < 503; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().flushAllPages();
+
+        // fill it, and crash before the page is written
+        empty.insertTuple(tid, Utility.getHeapTuple(503, 2));
+        Database.reset();
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(reopened, "reopened");
+        ArrayList<Page> pages = reopened.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(0, pages.get(0).getId().pageNumber());
+        assertEquals(1, reopened.numPages());
+    }
+
+    /**
+     * Unit test for the free-space map of a file that is written without
+     * it: the map is rebuilt if the file changed, and converters delete it
+     */
+    @Test public void freeSpaceMapStale() throws Exception {
+        for (int i = 0; i < 2 * 504; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().flushAllPages();
+        File fsm = new File(empty.getFile().getPath() + ".fsm");
+        assertTrue(fsm.exists());
+
+        // empty both pages behind the map's back; the map says they are full
+        Database.reset();
+        RandomAccessFile raf = new RandomAccessFile(empty.getFile(), "rw");
+        raf.write(HeapPage.createEmptyPageData());
+        raf.write(HeapPage.createEmptyPageData());
+        raf.close();
+        empty.getFile().setLastModified(empty.getFile().lastModified() - 10000);
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(reopened, "reopened");
+        ArrayList<Page> pages = reopened.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(0, pages.get(0).getId().pageNumber());
+        assertEquals(2, reopened.numPages());
+
+        HeapFileEncoder.convert(new ArrayList<ArrayList<Integer>>(),
+                empty.getFile(), BufferPool.PAGE_SIZE, 2);
+        assertFalse(fsm.exists());
+    }
+
     /**
      * JUnit suite target
      */
@@ -120,6 +120,27 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Tuples are decoded from the page bytes on demand, field by field, and
+     * a page serializes to the same bytes whether or not they were decoded
+     */
+    @Test public void lazyDecoding() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) first.getField(1)).getValue());
+        assertEquals(new RecordId(pid, 0), first.getRecordId());
+        // the same tuple is returned each time it is asked for
+        assertTrue(first == page.iterator().next());
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        // a deleted tuple keeps its values
+        page.deleteTuple(first);
+        assertEquals(EXAMPLE_VALUES[0][0], ((IntField) first.getField(0)).getValue());
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,9 +1,11 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +128,36 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() after tuples are inserted and
+     * deleted: the bytes must read back as the same page
+     */
+    @Test public void pageDataTracksChanges() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        Tuple addition = Utility.getHeapTuple(42, 2);
+        page.insertTuple(addition);
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        Iterator<Tuple> it = page.iterator();
+        Iterator<Tuple> copyIt = copy.iterator();
+        while (it.hasNext()) {
+            assertTrue(copyIt.hasNext());
+            assertTrue(TestUtil.compareTuples(it.next(), copyIt.next()));
+        }
+        assertFalse(copyIt.hasNext());
+
+        // the before image is the page as it was read
+        HeapPage before = page.getBeforeImage();
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES.length,
+                504 - before.getNumEmptySlots());
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA,
+                before.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
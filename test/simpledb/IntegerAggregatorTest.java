@@ -178,6 +178,42 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator grouping on a string field, without grouping,
+   * and with enough groups to grow its tables
+   */
+  @Test public void mergeManyGroups() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+    IntegerAggregator byString = new IntegerAggregator(0, Type.STRING_TYPE, 1,
+        Aggregator.Op.AVG);
+    IntegerAggregator overall = new IntegerAggregator(Aggregator.NO_GROUPING,
+        null, 1, Aggregator.Op.MIN);
+    int groups = 1000;
+    for (int i = 0; i < groups * 3; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField("g" + (i % groups), Type.STRING_LEN));
+      t.setField(1, new IntField(i + 5));
+      byString.mergeTupleIntoGroup(t);
+      overall.mergeTupleIntoGroup(t);
+    }
+
+    DbIterator it = byString.iterator();
+    it.open();
+    int count = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int g = Integer.parseInt(((StringField) t.getField(0)).getValue().substring(1));
+      // the values of group g are g + 5, g + 1005 and g + 2005
+      assertEquals(new IntField(g + 1005), t.getField(1));
+      count++;
+    }
+    assertEquals(groups, count);
+
+    it = overall.iterator();
+    it.open();
+    assertEquals(new IntField(5), it.next().getField(0));
+  }
+
   /**
    * JUnit suite target
    */
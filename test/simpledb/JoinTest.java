@@ -105,6 +105,30 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() when the outer relation spans several blocks
+   */
+  @Test public void multiBlockJoin() throws Exception {
+    int[] outerData = new int[2500];
+    for (int i = 0; i < outerData.length; i++)
+      outerData[i] = i % 10;
+    DbIterator outer = TestUtil.createTupleList(1, outerData);
+    DbIterator inner = TestUtil.createTupleList(1, new int[] { 0, 3, 6, 9 });
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+    Join op = new Join(pred, outer, inner, 1);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertTrue(((IntField) t.getField(0)).getValue()
+          < ((IntField) t.getField(1)).getValue());
+      count++;
+    }
+    // each of the 250 repetitions of 0..9 has 3, 6 and 9 values below
+    // the inner values 3, 6 and 9; nothing is below 0
+    assertEquals(250 * (3 + 6 + 9), count);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,118 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  /**
+   * Drains op, checking that field 0 is ordered, and returns the count
+   */
+  private static int checkOrdered(DbIterator op, boolean asc) throws Exception {
+    int count = 0;
+    Field prev = null;
+    while (op.hasNext()) {
+      Field f = op.next().getField(0);
+      if (prev != null) {
+        assertFalse(f.compare(asc ? Predicate.Op.LESS_THAN
+            : Predicate.Op.GREATER_THAN, prev));
+      }
+      prev = f;
+      count++;
+    }
+    return count;
+  }
+
+  private static DbIterator scrambled(int n) {
+    int[] data = new int[n * 2];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = (i * 7919) % 10007;
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() when the child fits in memory
+   */
+  @Test public void inMemorySort() throws Exception {
+    OrderBy op = new OrderBy(0, false, scrambled(100));
+    op.open();
+    assertFalse(op.hasSpilled());
+    assertEquals(100, checkOrdered(op, false));
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() when the child is written out as many
+   * runs that take several merge passes
+   */
+  @Test public void externalSort() throws Exception {
+    int n = 10000;
+    OrderBy op = new OrderBy(0, true, scrambled(n), 1);
+    op.open();
+    assertTrue(op.hasSpilled());
+    assertEquals(n, checkOrdered(op, true));
+    assertTrue(TestUtil.checkExhausted(op));
+
+    op.rewind();
+    assertEquals(n, checkOrdered(op, true));
+    op.close();
+  }
+
+  /**
+   * Reopening an OrderBy must not keep the tuples of the previous open
+   */
+  @Test public void reopen() throws Exception {
+    OrderBy op = new OrderBy(0, true, scrambled(50));
+    op.open();
+    assertEquals(50, checkOrdered(op, true));
+    op.close();
+    op.open();
+    assertEquals(50, checkOrdered(op, true));
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() on an int key ascending, then a string
+   * key descending
+   */
+  @Test public void multipleKeys() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    int[] ints = { 2, 1, 2, 1, 2 };
+    String[] strings = { "a", "b", "c", "a", "b" };
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < ints.length; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(ints[i]));
+      t.setField(1, new StringField(strings[i], Type.STRING_LEN));
+      tuples.add(t);
+    }
+    OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+        new TupleIterator(td, tuples), OrderBy.DEFAULT_MEMORY_PAGES);
+    op.open();
+    int[] expectedInts = { 1, 1, 2, 2, 2 };
+    String[] expectedStrings = { "b", "a", "c", "b", "a" };
+    for (int i = 0; i < expectedInts.length; i++) {
+      Tuple t = op.next();
+      assertEquals(new IntField(expectedInts[i]), t.getField(0));
+      assertEquals(expectedStrings[i], ((StringField) t.getField(1)).getValue());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
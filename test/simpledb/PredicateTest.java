@@ -3,6 +3,7 @@ package simpledb;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import junit.framework.JUnit4TestAdapter;
@@ -55,6 +56,43 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  /**
+   * Unit test for the compiled evaluators: for every operator, int and
+   * string predicates agree with Field.compare, on tuples and on batches
+   */
+  @Test public void compiledMatchesCompare() {
+    Field[][] values = new Field[][] {
+        { new IntField(-1), new IntField(0), new IntField(1) },
+        { new StringField("a", Type.STRING_LEN), new StringField("ab", Type.STRING_LEN),
+          new StringField("b", Type.STRING_LEN) } };
+
+    for (Field[] vals : values) {
+      TupleDesc td = new TupleDesc(new Type[] { vals[0].getType() });
+      TupleBatch batch = new TupleBatch(td, vals.length);
+      for (Field v : vals) {
+        Tuple t = new Tuple(td);
+        t.setField(0, v);
+        batch.add(t);
+      }
+      int[] selected = new int[vals.length];
+
+      for (Predicate.Op op : Predicate.Op.values()) {
+        for (Field operand : vals) {
+          Predicate p = new Predicate(0, op, operand);
+          int n = p.filter(batch, selected);
+          int count = 0;
+          for (int r = 0; r < vals.length; r++) {
+            boolean expected = vals[r].compare(op, operand);
+            assertEquals(expected, p.filter(batch.getTuple(r)));
+            if (expected)
+              assertEquals(r, selected[count++]);
+          }
+          assertEquals(count, n);
+        }
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,243 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+  DbIterator gtJoin;
+  DbIterator ltJoin;
+
+  /**
+   * Initialize each unit test; the inputs are deliberately out of order
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 5, 6,
+                    1, 2,
+                    7, 8,
+                    3, 4 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 4, 5, 6,
+                    2, 3, 4,
+                    5, 6, 7,
+                    1, 2, 3,
+                    3, 4, 5 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+    this.gtJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] {
+                    3, 4, 1, 2, 3, // 1, 2 < 3
+                    3, 4, 2, 3, 4,
+                    5, 6, 1, 2, 3, // 1, 2, 3, 4 < 5
+                    5, 6, 2, 3, 4,
+                    5, 6, 3, 4, 5,
+                    5, 6, 4, 5, 6,
+                    7, 8, 1, 2, 3, // 1, 2, 3, 4, 5 < 7
+                    7, 8, 2, 3, 4,
+                    7, 8, 3, 4, 5,
+                    7, 8, 4, 5, 6,
+                    7, 8, 5, 6, 7 });
+    this.ltJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] {
+                    1, 2, 2, 3, 4, // 1 < 2, 3, 4, 5
+                    1, 2, 3, 4, 5,
+                    1, 2, 4, 5, 6,
+                    1, 2, 5, 6, 7,
+                    3, 4, 4, 5, 6, // 3 < 4, 5
+                    3, 4, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    assertEquals(expected, op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using an = predicate
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using a &gt; predicate
+   */
+  @Test public void gtJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using a &lt; predicate
+   */
+  @Test public void ltJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    ltJoin.open();
+    TestUtil.matchAllTuples(ltJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() with runs of duplicate keys on
+   * both sides, and for SortMergeJoin.rewind()
+   */
+  @Test public void duplicateKeys() throws Exception {
+    DbIterator left = TestUtil.createTupleList(1, new int[] { 2, 1, 3, 1, 2 });
+    DbIterator right = TestUtil.createTupleList(1,
+        new int[] { 1, 0, 1, 2, 1, 4 });
+    SortMergeJoin op = new SortMergeJoin(
+        new JoinPredicate(0, Predicate.Op.EQUALS, 0), left, right);
+    op.open();
+    for (int pass = 0; pass < 2; pass++) {
+      int count = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        assertEquals(t.getField(0), t.getField(1));
+        count++;
+      }
+      // two 1s on the left times three on the right, plus two 2s times one
+      assertEquals(2 * 3 + 2 * 1, count);
+      assertTrue(TestUtil.checkExhausted(op));
+      op.rewind();
+    }
+  }
+
+  /**
+   * Inputs that are already ordered are detected and not sorted again
+   */
+  @Test public void sortedInputDetection() throws Exception {
+    JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    OrderBy sorted1 = new OrderBy(0, true, scan1);
+    OrderBy sorted2 = new OrderBy(0, true, scan2);
+    assertTrue(SortMergeJoin.isSortedInput(eq, sorted1, sorted2));
+    assertFalse(SortMergeJoin.isSortedInput(eq, sorted1, scan2));
+    assertFalse(SortMergeJoin.isSortedInput(eq, new OrderBy(0, false, scan1),
+        sorted2));
+
+    // an equality merge join is ordered on both of its join fields
+    SortMergeJoin smj = new SortMergeJoin(eq, sorted1, sorted2);
+    assertTrue(SortMergeJoin.isSortedOn(smj, 0, true));
+    assertTrue(SortMergeJoin.isSortedOn(smj, width1, true));
+    assertFalse(SortMergeJoin.isSortedOn(smj, 1, true));
+
+    // < needs both inputs in descending order
+    JoinPredicate lt = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+    OrderBy desc2 = new OrderBy(0, false, scan2);
+    assertTrue(SortMergeJoin.isSortedInput(lt, new OrderBy(0, false, scan1),
+        desc2));
+    assertFalse(SortMergeJoin.isSortedInput(lt, scan1, desc2));
+    assertFalse(SortMergeJoin.isSortedInput(lt, sorted1, desc2));
+
+    // a range merge join is ordered on its left join field only
+    SortMergeJoin ltj = new SortMergeJoin(lt, scan1, scan2);
+    assertTrue(SortMergeJoin.isSortedOn(ltj, 0, false));
+    assertFalse(SortMergeJoin.isSortedOn(ltj, 0, true));
+    assertFalse(SortMergeJoin.isSortedOn(ltj, width1, false));
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() on range predicates with duplicate
+   * keys on both sides, against a nested loops Join, and for rewind()
+   */
+  @Test public void rangeDuplicates() throws Exception {
+    int[] left = new int[] { 3, 1, 2, 2, 5, 0 };
+    int[] right = new int[] { 2, 1, 2, 4, 0, 3, 2 };
+    Predicate.Op[] ops = new Predicate.Op[] { Predicate.Op.GREATER_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN,
+        Predicate.Op.LESS_THAN_OR_EQ };
+    for (Predicate.Op op : ops) {
+      JoinPredicate pred = new JoinPredicate(0, op, 0);
+      SortMergeJoin smj = new SortMergeJoin(pred,
+          TestUtil.createTupleList(1, left), TestUtil.createTupleList(1, right));
+      Join nl = new Join(pred,
+          TestUtil.createTupleList(1, left), TestUtil.createTupleList(1, right));
+      smj.open();
+      nl.open();
+      // matchAllTuples rewinds smj for each tuple of nl
+      TestUtil.matchAllTuples(nl, smj);
+      nl.rewind();
+      smj.rewind();
+      int expected = 0;
+      while (nl.hasNext()) {
+        nl.next();
+        expected++;
+      }
+      int count = 0;
+      while (smj.hasNext()) {
+        smj.next();
+        count++;
+      }
+      assertEquals(expected, count);
+      nl.close();
+      smj.close();
+    }
+  }
+
+  /**
+   * The optimizer merges equality joins of sorted inputs and all range
+   * joins, sorting their inputs if needed
+   */
+  @Test public void instantiateJoin() throws Exception {
+    DbIterator left = new TupleIterator(
+        Utility.getTupleDesc(1, "a."), new ArrayList<Tuple>());
+    DbIterator right = new TupleIterator(
+        Utility.getTupleDesc(1, "b."), new ArrayList<Tuple>());
+    DbIterator sortedLeft = new OrderBy(0, true, left);
+    DbIterator sortedRight = new OrderBy(0, true, right);
+    assertTrue(JoinOptimizer.instantiateJoin(new LogicalJoinNode("a", "b",
+        "a.0", "b.0", Predicate.Op.EQUALS), sortedLeft, sortedRight)
+        instanceof SortMergeJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(new LogicalJoinNode("a", "b",
+        "a.0", "b.0", Predicate.Op.EQUALS), left, right) instanceof HashJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(new LogicalJoinNode("a", "b",
+        "a.0", "b.0", Predicate.Op.GREATER_THAN), left, right)
+        instanceof SortMergeJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(new LogicalJoinNode("a", "b",
+        "a.0", "b.0", Predicate.Op.NOT_EQUALS), left, right) instanceof Join);
+  }
+
+  /**
+   * SortMergeJoin cannot evaluate a != predicate by merging
+   */
+  @Test(expected = IllegalArgumentException.class) public void rejectsNotEquals() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+        scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
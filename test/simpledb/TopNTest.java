@@ -0,0 +1,116 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  DbIterator scan;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleList() throws Exception {
+    this.scan = TestUtil.createTupleList(2,
+        new int[] { 5, 1,
+                    3, 2,
+                    9, 3,
+                    1, 4,
+                    7, 5,
+                    3, 6 });
+  }
+
+  private static void checkFirstField(DbIterator op, int[] expected)
+      throws Exception {
+    for (int i = 0; i < expected.length; i++) {
+      assertTrue(op.hasNext());
+      assertEquals(new IntField(expected[i]), op.next().getField(0));
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * Unit test for TopN.getNext() in ascending order
+   */
+  @Test public void topAscending() throws Exception {
+    TopN op = new TopN(0, true, 3, scan);
+    op.open();
+    checkFirstField(op, new int[] { 1, 3, 3 });
+  }
+
+  /**
+   * Unit test for TopN.getNext() in descending order, and TopN.rewind()
+   */
+  @Test public void topDescending() throws Exception {
+    TopN op = new TopN(0, false, 2, scan);
+    op.open();
+    checkFirstField(op, new int[] { 9, 7 });
+    op.rewind();
+    checkFirstField(op, new int[] { 9, 7 });
+  }
+
+  /**
+   * A limit larger than the input returns the whole input in order
+   */
+  @Test public void limitLargerThanInput() throws Exception {
+    TopN op = new TopN(0, true, 100, scan);
+    op.open();
+    checkFirstField(op, new int[] { 1, 3, 3, 5, 7, 9 });
+  }
+
+  /**
+   * A huge limit over a small input does not allocate room for the limit
+   */
+  @Test public void hugeLimit() throws Exception {
+    TopN op = new TopN(0, true, 999999999, scan);
+    op.open();
+    checkFirstField(op, new int[] { 1, 3, 3, 5, 7, 9 });
+  }
+
+  /**
+   * Unit test for TopN.getNext() with a limit of 0
+   */
+  @Test public void limitZero() throws Exception {
+    TopN op = new TopN(0, true, 0, scan);
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * Unit test for Limit.getNext() and Limit.rewind()
+   */
+  @Test public void limit() throws Exception {
+    Limit op = new Limit(2, scan);
+    op.open();
+    checkFirstField(op, new int[] { 5, 3 });
+    op.rewind();
+    checkFirstField(op, new int[] { 5, 3 });
+  }
+
+  /**
+   * The parser removes a trailing LIMIT clause, which Zql cannot parse
+   */
+  @Test public void stripLimit() {
+    Parser p = new Parser();
+    assertEquals("SELECT * FROM t ORDER BY t.a;",
+        p.stripLimit("SELECT * FROM t ORDER BY t.a limit 10;"));
+    assertEquals("SELECT * FROM t;", p.stripLimit("SELECT * FROM t;"));
+    // only at the end of the statement
+    String quoted = "SELECT * FROM t WHERE t.s = 'x LIMIT 5;';";
+    assertEquals(quoted, p.stripLimit(quoted));
+    assertEquals("SELECT * FROM t;", p.stripLimit("SELECT * FROM t LIMIT 5;\n"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
@@ -0,0 +1,127 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Unit test for HeapPage.decodeInto(): the rows are the page's tuples,
+     * including one inserted after the page was read, across several batches
+     */
+    @Test public void decodePage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.deleteTuple(page.iterator().next());
+        page.insertTuple(Utility.getHeapTuple(new int[] { 7, 8 }));
+        ArrayList<Tuple> expected = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            expected.add(it.next());
+
+        TupleBatch batch = new TupleBatch(Utility.getTupleDesc(2), 7);
+        int slot = 0;
+        int row = 0;
+        while (slot < page.numSlots) {
+            batch.clear();
+            slot = page.decodeInto(batch, slot);
+            for (int k = 0; k < batch.size(); k++, row++) {
+                Tuple t = expected.get(row);
+                assertTrue(TestUtil.compareTuples(t, batch.getTuple(k)));
+                assertEquals(t.getRecordId(), batch.getRecordId(k));
+            }
+        }
+        assertEquals(expected.size(), row);
+    }
+
+    /**
+     * Unit test for filtering string vectors through the selection vector,
+     * and projecting the filtered batch
+     */
+    @Test public void selectStrings() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        TupleBatch batch = new TupleBatch(td);
+        String[] names = { "apple", "banana", "cherry", "apricot", "" };
+        for (int i = 0; i < names.length; i++)
+            batch.add(tuple(td, i, names[i]));
+        assertNull(batch.getRecordId(0));
+
+        int[] selected = new int[batch.size()];
+        int n = new Predicate(1, Predicate.Op.LIKE, new StringField("ap", Type.STRING_LEN))
+                .filter(batch, selected);
+        batch.select(selected, n);
+        assertEquals(2, batch.size());
+        assertEquals(new IntField(3), batch.getField(0, 1));
+
+        // filter the filtered rows again
+        n = new Predicate(1, Predicate.Op.GREATER_THAN, new StringField("apple", Type.STRING_LEN))
+                .filter(batch, selected);
+        batch.select(selected, n);
+        assertEquals(1, batch.size());
+
+        TupleBatch projected = batch.project(new int[] { 1 },
+                new TupleDesc(new Type[] { Type.STRING_TYPE }));
+        assertEquals(1, projected.size());
+        assertEquals("apricot", ((StringField) projected.getField(0, 0)).getValue());
+
+        batch.clear();
+        assertEquals(0, batch.size());
+        // all rows are selected again
+        batch.add(tuple(td, 9, "x"));
+        assertEquals(1, batch.size());
+        assertEquals(new IntField(9), batch.getField(0, 0));
+    }
+
+    /**
+     * Unit test for grouping on string vectors: a non-ASCII key finds the
+     * same group each time, whether it is read from a batch or a Tuple
+     */
+    @Test public void groupNonAscii() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        String[] names = { "caf\u00e9", "caf\u00e9", "abc", "abc" };
+        TupleBatch batch = new TupleBatch(td);
+        for (int i = 0; i < names.length; i++)
+            batch.add(tuple(td, i, names[i]));
+        MultiAggregator agg = new MultiAggregator(new int[] { 1 },
+                new Type[] { Type.STRING_TYPE }, new int[] { 0 },
+                new Type[] { Type.INT_TYPE }, new Aggregator.Op[] { Aggregator.Op.COUNT });
+        agg.mergeBatch(batch);
+        assertEquals(2, agg.numGroups());
+        for (int k = 0; k < batch.size(); k++)
+            agg.mergeTupleIntoGroup(batch.getTuple(k));
+        assertEquals(2, agg.numGroups());
+    }
+
+    private static Tuple tuple(TupleDesc td, int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
@@ -113,6 +113,35 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    /**
+     * Aggregates a table of many pages in ranges on several threads, with
+     * enough distinct groups that the merged state spills to disk
+     */
+    @Test public void testParallelManyGroups()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS * 16, ROWS * 4, null, createdTuples);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> avgs = aggregate(createdTuples, Aggregator.Op.AVG, 1, 0);
+        ArrayList<ArrayList<Integer>> mins = aggregate(createdTuples, Aggregator.Op.MIN, 2, 0);
+        Map<Integer, Integer> minByGroup = new HashMap<Integer, Integer>();
+        for (ArrayList<Integer> min : mins)
+            minByGroup.put(min.get(0), min.get(1));
+        for (ArrayList<Integer> avg : avgs) {
+            avg.add(minByGroup.get(avg.get(0)));
+            expected.add(avg);
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        Aggregate ag = new Aggregate(ss, new int[] { 1, 2 }, new int[] { 0 },
+                new Aggregator.Op[] { Aggregator.Op.AVG, Aggregator.Op.MIN }, 1);
+        ag.setParallelism(4);
+        SystemTestUtil.matchTuples(ag, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
@@ -0,0 +1,32 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import static org.junit.Assert.*;
+import simpledb.*;
+
+public class BatchFilterTest extends FilterBase {
+    @Override
+    protected int applyPredicate(HeapFile table, TransactionId tid, Predicate predicate)
+            throws DbException, TransactionAbortedException, IOException {
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        Filter filter = new Filter(predicate, ss);
+        filter.open();
+
+        int resultCount = 0;
+        TupleBatch batch;
+        while ((batch = filter.nextBatch()) != null) {
+            assertTrue(batch.size() > 0);
+            for (int row = 0; row < batch.size(); row++)
+                assertTrue(predicate.filter(batch.getTuple(row)));
+            resultCount += batch.size();
+        }
+
+        filter.close();
+        return resultCount;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchFilterTest.class);
+    }
+}
@@ -0,0 +1,92 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Runs plans of operators that work on batches through an UnbatchingIterator,
+ * and checks them against the same plans computed a tuple at a time.
+ */
+public class BatchTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    @Test public void filterProject()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, tuples);
+
+        // project fields 2 and 0 (twice) of the rows where field 1 < 30
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) < 30)
+                expected.add(new ArrayList<Integer>(Arrays.asList(t.get(2), t.get(0), t.get(0))));
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30)), ss);
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(2, 0, 0));
+        Type[] types = { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
+        Project project = new Project(fields, types, filter);
+        SystemTestUtil.matchTuples(new UnbatchingIterator(project), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void filterAggregate()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, 50, null, tuples);
+
+        // SUM(field 1) GROUP BY field 0, over the rows where field 1 >= 10
+        HashMap<Integer, Integer> sums = new HashMap<Integer, Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) >= 10) {
+                Integer sum = sums.get(t.get(0));
+                sums.put(t.get(0), (sum == null ? 0 : sum) + t.get(1));
+            }
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (Integer group : sums.keySet())
+            expected.add(new ArrayList<Integer>(Arrays.asList(group, sums.get(group))));
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(10)), ss);
+        Aggregate agg = new Aggregate(filter, 1, 0, Aggregator.Op.SUM);
+        SystemTestUtil.matchTuples(new UnbatchingIterator(agg), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Only plans whose operators make batches themselves are read in
+     * batches; a join makes each row a Tuple, so plans over one are not
+     */
+    @Test public void batchedPlans()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(0));
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        assertTrue(BatchingIterator.isBatched(new Filter(p, ss)));
+
+        Join join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table.getId(), "a"), new SeqScan(tid, table.getId(), "b"));
+        assertFalse(BatchingIterator.isBatched(join));
+        assertFalse(BatchingIterator.isBatched(new Filter(p, join)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchTest.class);
+    }
+}
@@ -1,8 +1,11 @@
 package simpledb.systemtest;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import simpledb.*;
+import Zql.ZInsert;
+import Zql.ZqlParser;
 
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -10,6 +13,12 @@ import org.junit.Test;
 public class InsertTest extends SimpleDbTestBase {
     private void validateInsert(int columns, int sourceRows, int destinationRows)
                 throws DbException, IOException, TransactionAbortedException {
+        validateInsert(columns, sourceRows, destinationRows, false);
+    }
+
+    private void validateInsert(int columns, int sourceRows, int destinationRows,
+                boolean bulk)
+                throws DbException, IOException, TransactionAbortedException {
         // Create the two tables
         ArrayList<ArrayList<Integer>> sourceTuples = new ArrayList<ArrayList<Integer>>();
         HeapFile source = SystemTestUtil.createRandomHeapFile(
@@ -23,7 +32,7 @@ public class InsertTest extends SimpleDbTestBase {
         // Insert source into destination
         TransactionId tid = new TransactionId();
         SeqScan ss = new SeqScan(tid, source.getId(), "");
-        Insert insOp = new Insert(tid, ss, destination.getId());
+        Insert insOp = new Insert(tid, ss, destination.getId(), bulk);
 
 //        Query q = new Query(insOp, tid);
         insOp.open();
@@ -68,6 +77,54 @@ public class InsertTest extends SimpleDbTestBase {
         validateInsert(1, 1, 1);
     }
 
+    @Test public void testBulkOneToOne()
+            throws IOException, DbException, TransactionAbortedException {
+        validateInsert(1, 1, 1, true);
+    }
+
+    @Test public void testBulkManyPages()
+            throws IOException, DbException, TransactionAbortedException {
+        // more pages than are written at a time
+        validateInsert(2, 20000, 100, true);
+    }
+
+    private static Insert parseInsert(String sql, TransactionId tid)
+            throws Exception {
+        ZInsert s = (ZInsert) new ZqlParser(
+                new ByteArrayInputStream(sql.getBytes("UTF-8"))).readStatement();
+        return (Insert) new Parser().handleInsertStatement(s, tid)
+                .getPhysicalPlan();
+    }
+
+    /**
+     * INSERT ... SELECT into a HeapFile appends the tuples on new pages, unless
+     * the query reads the table being inserted into
+     */
+    @Test public void testParsedInsertSelectIsBulk() throws Exception {
+        ArrayList<ArrayList<Integer>> sourceTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(2, 500, null, sourceTuples);
+        ArrayList<ArrayList<Integer>> destinationTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile destination = SystemTestUtil.createRandomHeapFile(2, 1, null, destinationTuples);
+        Database.getCatalog().addTable(source, "bulk_source");
+        Database.getCatalog().addTable(destination, "bulk_destination");
+
+        TransactionId tid = new TransactionId();
+        assertFalse(parseInsert("INSERT INTO bulk_destination SELECT * FROM bulk_destination;",
+                tid).isBulk());
+        Insert insOp = parseInsert("INSERT INTO bulk_destination SELECT * FROM bulk_source;", tid);
+        assertTrue(insOp.isBulk());
+        insOp.open();
+        assertEquals(500, ((IntField) insOp.next().getField(0)).getValue());
+        insOp.close();
+        // the 500 tuples fit on one new page; the page that held the one
+        // tuple had room for them too, but was not used
+        assertEquals(2, destination.numPages());
+
+        Database.getBufferPool().transactionComplete(tid);
+        sourceTuples.addAll(destinationTuples);
+        SystemTestUtil.matchTuples(destination, sourceTuples);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(InsertTest.class);